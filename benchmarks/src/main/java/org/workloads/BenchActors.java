@@ -0,0 +1,66 @@
+package org.workloads;
+
+import org.apache.pekko.actor.AbstractActor;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.apache.pekko.actor.Props;
+
+import java.util.ArrayDeque;
+
+/*
+ * Actors the benchmarks put around the one being measured. They run on a Simulation, like the virtual mode of Main,
+ * so a benchmark sends a message and then drains the mailboxes on its own thread.
+ */
+class BenchActors {
+
+    static ActorSystem system(String name, Simulation simulation) {
+        return simulation.system(name);
+    }
+
+    /*
+     * Ignores everything; stands in for the caller, whose return path frame responses leave through.
+     */
+    static class Sink extends AbstractActor {
+        static Props props() {
+            return Props.create(Sink.class, Sink::new);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder().matchAny(m -> {}).build();
+        }
+    }
+
+    /*
+     * Downstream instance that keeps depth requests in flight: every request it gets pushes out the response to the oldest one.
+     */
+    static class Backend extends AbstractActor {
+        private final int depth;
+        private final ArrayDeque<Request> held = new ArrayDeque<>();
+
+        static Props props(int depth) {
+            return Props.create(Backend.class, () -> new Backend(depth));
+        }
+
+        Backend(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Request.class, r -> {
+                        r.enter(getSelf());
+                        held.add(r);
+                        if (held.size() > depth) {
+                            var resp = new Response();
+                            resp.request = held.poll();
+                            resp.status = Response.Status.Ok;
+                            resp.request.leave(getSelf()).tell(resp, getSelf());
+                        }
+                    })
+                    .matchAny(m -> {})
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A request through the Group: balancing, the Request/Response round trip to the backend, and back to the caller.
+ * Every backend keeps a few requests in flight, so the active counters aren't all zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupBenchmark {
+
+    @Param({"LeastBusyEnvoy", "RoundRobinEnvoy", "ClusterIP", "PowerOfTwoChoices"})
+    public Group.Balancing balancing;
+
+    @Param({"10", "100", "1000"})
+    public int backends;
+
+    private Simulation simulation;
+    private ActorSystem system;
+    private ActorRef group;
+    private ActorRef caller;
+
+    @Setup
+    public void setUp() {
+        simulation = new Simulation();
+        system = BenchActors.system("group", simulation);
+        var downstream = new ArrayList<ActorRef>();
+        for (int i = 0; i < backends; i++) {
+            downstream.add(system.actorOf(BenchActors.Backend.props(4), "backend_" + i));
+        }
+        group = system.actorOf(Group.props(downstream, balancing, null), "envoy");
+        caller = system.actorOf(BenchActors.Sink.props(), "caller");
+        group.tell(new Group.Connect(), caller);
+        simulation.run(Duration.ZERO);
+    }
+
+    @TearDown
+    public void tearDown() {
+        simulation.terminate(system);
+    }
+
+    @Benchmark
+    public void handleRequest() {
+        var r = new Request(simulation.nextRequestId(), 0, simulation.now());
+        r.enter(caller);
+        group.tell(r, caller);
+        simulation.run(Duration.ZERO);
+    }
+}
@@ -0,0 +1,48 @@
+package org.workloads;
+
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A request through the limiter: push, poll and the result, with a limit check once per simulated second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimiterBenchmark {
+
+    @Param({"unlimited", "static", "errors", "latency", "gradient", "vegas"})
+    public String type;
+
+    private Limiter limiter;
+    private long now;
+    private long lastId;
+
+    @Setup
+    public void setUp() {
+        limiter = Scenario.limiter(ConfigFactory.parseString("type = " + type
+                + ", reaction = Wait, limit = 100, top-limit = 200, decrease-trigger = 1s, increase-trigger = 500ms"));
+    }
+
+    @Benchmark
+    public void pushPoll(Blackhole bh) {
+        now += 1000;
+        var r = new Request(++lastId, 0, now - 100000);
+        r.started = now - 50000;
+        bh.consume(limiter.push(r, now));
+        var polled = limiter.poll(now);
+        if (polled != null) {
+            var resp = new Response();
+            resp.request = polled;
+            resp.status = Response.Status.Ok;
+            limiter.hasResult(resp, now);
+        }
+        limiter.tick(now);
+    }
+}
@@ -0,0 +1,61 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Request creation and the return path of a request going down two tiers and back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private Simulation simulation;
+    private ActorSystem system;
+    private ActorRef[] actors = new ActorRef[5];
+
+    @Setup
+    public void setUp() {
+        simulation = new Simulation();
+        system = BenchActors.system("request", simulation);
+        for (int i = 0; i < actors.length; i++) {
+            actors[i] = system.actorOf(BenchActors.Sink.props(), "actor_" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        simulation.terminate(system);
+    }
+
+    @Benchmark
+    public Request create() {
+        var r = new Request(simulation.nextRequestId(), 0, 0);
+        r.enter(actors[0]);
+        return r;
+    }
+
+    // driver -> client -> envoy -> service -> envoy, then back; every service responds with the request it got
+    @Benchmark
+    public ActorRef goDownstream() {
+        var r = new Request(simulation.nextRequestId(), 0, 0);
+        r.enter(actors[0]);
+        r.enter(actors[1]);
+        var d = r.goDownstream(0);
+        d.enter(actors[2]);
+        d.enter(actors[3]);
+        var dd = d.goDownstream(1);
+        dd.enter(actors[4]);
+        dd.leave(actors[4]);
+        d.leave(actors[3]);
+        d.leave(actors[2]);
+        return r.leave(actors[1]);
+    }
+}
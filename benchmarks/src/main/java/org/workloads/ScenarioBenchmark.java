@@ -0,0 +1,49 @@
+package org.workloads;
+
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * End to end: the default scenario's topology on the virtual clock; the requests counter is simulated requests per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ScenarioBenchmark {
+
+    @Param({"5s"})
+    public String duration;
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long requests;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+        }
+    }
+
+    private Scenario scenario;
+
+    @Setup
+    public void setUp() {
+        scenario = new Scenario(ConfigFactory.parseString("duration = " + duration + ", batching = " + batching).withFallback(Scenario.parse(null)).withoutPath("metrics"));
+    }
+
+    @Benchmark
+    public Driver.Results run(Counters counters) throws InterruptedException {
+        var results = scenario.run(true, false);
+        counters.requests += results.sent;
+        return results;
+    }
+}
@@ -0,0 +1,57 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Service tick (processor sharing progress, timers, limiter) with a number of requests calculating at once.
+ * The calculations are long enough not to complete during the run, so the in-progress count stays put.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int inProgress;
+
+    private static final Duration STEP = Duration.ofNanos(1000);
+
+    private Simulation simulation;
+    private ActorSystem system;
+    private ActorRef service;
+    private Driver.Tick tick = new Driver.Tick();
+
+    @Setup
+    public void setUp() {
+        simulation = new Simulation();
+        system = BenchActors.system("service", simulation);
+        service = system.actorOf(Service.props(null, 100, new Limiter.Unlimited(), Duration.ofDays(1), null,
+                Service.Retries.DEFAULT, simulation, null), "service");
+        var caller = system.actorOf(BenchActors.Sink.props(), "caller");
+        for (int i = 0; i < inProgress; i++) {
+            var r = new Request(simulation.nextRequestId(), 0, simulation.now());
+            r.enter(caller);
+            service.tell(r, caller);
+        }
+        simulation.run(Duration.ZERO);
+    }
+
+    @TearDown
+    public void tearDown() {
+        simulation.terminate(system);
+    }
+
+    @Benchmark
+    public void tick() {
+        service.tell(tick, ActorRef.noSender());
+        simulation.run(STEP);
+    }
+}
@@ -0,0 +1,178 @@
+package org.workloads;
+
+import java.time.Duration;
+
+/*
+ * Requests waiting for the limiter to let them start: a preallocated ring buffer of the requests and the times they were queued.
+ * The discipline decides which request goes next, and which ones are shed instead; shed requests are kept
+ * (in a second ring) until the service takes them to respond with Discarded. Every dequeued request's sojourn time is recorded.
+ */
+public abstract class AdmissionQueue {
+
+    private final Request[] requests;
+    private final long[] queued;
+    private int head;
+    private int size;
+
+    private final Request[] shed;
+    private int shedHead;
+    private int shedSize;
+    private long shedTotal;
+
+    // sojourn times (nanoseconds) of the requests dequeued since the last reset
+    public final Histogram sojourn = new Histogram();
+
+    public AdmissionQueue(int capacity) {
+        requests = new Request[capacity];
+        queued = new long[capacity];
+        shed = new Request[capacity];
+    }
+
+    /*
+     * Next request to start, or null when there's none; may shed others meanwhile.
+     */
+    public abstract Request poll(long now);
+
+    /*
+     * Adds the request; false when the queue is full.
+     */
+    public boolean offer(Request request, long now) {
+        if (size == requests.length)
+            return false;
+        var slot = (head + size) % requests.length;
+        requests[slot] = request;
+        queued[slot] = now;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Next shed request the service hasn't responded to yet, or null.
+     */
+    public Request pollShed() {
+        if (shedSize == 0)
+            return null;
+        var r = shed[shedHead];
+        shed[shedHead] = null;
+        shedHead = (shedHead + 1) % shed.length;
+        shedSize--;
+        return r;
+    }
+
+    public long shedTotal() {
+        return shedTotal;
+    }
+
+    /*
+     * Estimated heap footprint of the rings (not of the requests in them).
+     */
+    public long bytes() {
+        return (long) requests.length * (SlotTable.REFERENCE_BYTES * 2 + Long.BYTES);
+    }
+
+    protected boolean isEmpty() {
+        return size == 0;
+    }
+
+    // time the oldest request was queued at; the queue shouldn't be empty
+    protected long oldestQueued() {
+        return queued[head];
+    }
+
+    protected Request pollFirst(long now) {
+        var r = requests[head];
+        sojourn.record(now - queued[head]);
+        requests[head] = null;
+        head = (head + 1) % requests.length;
+        size--;
+        return r;
+    }
+
+    protected Request pollLast(long now) {
+        var slot = (head + size - 1) % requests.length;
+        var r = requests[slot];
+        sojourn.record(now - queued[slot]);
+        requests[slot] = null;
+        size--;
+        return r;
+    }
+
+    // the shed ring has the capacity of the queue, and every request in it left the queue, so it never overflows;
+    // the Limiter sheds the expired requests it polls the same way
+    protected void shed(Request r) {
+        shed[(shedHead + shedSize) % shed.length] = r;
+        shedSize++;
+        shedTotal++;
+    }
+
+    public static class Fifo extends AdmissionQueue {
+        public Fifo(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public Request poll(long now) {
+            return isEmpty() ? null : pollFirst(now);
+        }
+    }
+
+    /*
+     * Controlled delay (as servers use it): FIFO while requests wait less than the target; once they have waited longer
+     * for a whole interval, the queue is standing rather than absorbing a burst, and the requests older than the target are shed
+     * until a fresh one comes up.
+     */
+    public static class CoDel extends AdmissionQueue {
+        private final long target;
+        private final long interval;
+        private long firstAbove; // when the sojourn times went above the target; 0 while they are below
+
+        public CoDel(int capacity, Duration target, Duration interval) {
+            super(capacity);
+            this.target = target.toNanos();
+            this.interval = interval.toNanos();
+        }
+
+        @Override
+        public Request poll(long now) {
+            while (!isEmpty()) {
+                var waited = now - oldestQueued();
+                if (waited <= target) {
+                    firstAbove = 0;
+                    return pollFirst(now);
+                }
+                if (firstAbove == 0) {
+                    firstAbove = now + interval;
+                }
+                if (now < firstAbove) {
+                    return pollFirst(now);
+                }
+                shed(pollFirst(now));
+            }
+            return null;
+        }
+    }
+
+    /*
+     * FIFO until the oldest request has waited longer than the threshold; then LIFO, so the newest requests, whose callers
+     * most likely still wait for them, are served first, and the old ones wait until the congestion is over.
+     */
+    public static class AdaptiveLifo extends AdmissionQueue {
+        private final long threshold;
+
+        public AdaptiveLifo(int capacity, Duration threshold) {
+            super(capacity);
+            this.threshold = threshold.toNanos();
+        }
+
+        @Override
+        public Request poll(long now) {
+            if (isEmpty())
+                return null;
+            return now - oldestQueued() > threshold ? pollLast(now) : pollFirst(now);
+        }
+    }
+}
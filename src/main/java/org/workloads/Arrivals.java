@@ -0,0 +1,226 @@
+package org.workloads;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Random;
+
+/*
+ * Arrival process of the load: the timeline of the moments the requests are meant to be sent (Clock nanoseconds).
+ * Requests are timed from these moments rather than from when the Driver actually got to them,
+ * so a late timer or a busy Driver adds to the latencies instead of quietly lowering the load (coordinated omission).
+ */
+public abstract class Arrivals {
+
+    // while the rate is zero (or low), check again this much later
+    private static final long IDLE_STEP = Duration.ofMillis(1).toNanos();
+
+    protected long origin;
+
+    public void start(long now) {
+        this.origin = now;
+    }
+
+    /*
+     * Intended time of the arrival after the one at previous (or after the start); Long.MAX_VALUE when there are no more.
+     */
+    public abstract long next(long previous);
+
+    public void close() {}
+
+    // no arrivals from t on: the profile has settled at zero
+    private static boolean idleForever(Profile profile, long sinceStart) {
+        return profile.maxRate() <= 0 || (sinceStart >= profile.settlesAt() && profile.rate(sinceStart) <= 0);
+    }
+
+    /*
+     * Evenly spaced arrivals at the profile's current rate; the rate may be fractional (e.g. 2.5 per millisecond).
+     * At rates below one per IDLE_STEP the arrival is accumulated step by step, so a changing rate is followed closely.
+     */
+    public static class Constant extends Arrivals {
+        private final Profile profile;
+        private double carry; // fraction of a nanosecond the previous arrival was rounded down by
+
+        public Constant(Profile profile) {
+            this.profile = profile;
+        }
+
+        @Override
+        public long next(long previous) {
+            double at = previous + carry;
+            double due = 0; // share of the next arrival accumulated so far
+            while (true) {
+                var rate = profile.rate((long) at - origin);
+                if (rate <= 0) {
+                    if (idleForever(profile, (long) at - origin))
+                        return Long.MAX_VALUE;
+                    at += IDLE_STEP;
+                    continue;
+                }
+                var until = (1 - due) * 1000000.0 / rate;
+                if (until <= IDLE_STEP) {
+                    at += until;
+                    var whole = (long) at;
+                    carry = at - whole;
+                    return whole;
+                }
+                at += IDLE_STEP;
+                due += rate * IDLE_STEP / 1000000.0;
+            }
+        }
+    }
+
+    /*
+     * Independent arrivals: a Poisson process at the profile's rate, drawn at the profile's top rate and thinned out
+     * (every candidate is kept with the probability of rate / top rate).
+     */
+    public static class Poisson extends Arrivals {
+        private final Profile profile;
+        private final double meanGap;
+        private final Random rnd = new Random();
+
+        public Poisson(Profile profile) {
+            this.profile = profile;
+            this.meanGap = 1000000.0 / profile.maxRate();
+        }
+
+        @Override
+        public long next(long previous) {
+            double at = previous;
+            while (true) {
+                at += exponential(rnd, meanGap);
+                var sinceStart = (long) at - origin;
+                var rate = profile.rate(sinceStart);
+                if (rnd.nextDouble() * profile.maxRate() < rate)
+                    return (long) at;
+                if (rate <= 0 && idleForever(profile, sinceStart))
+                    return Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /*
+     * Markov-modulated Poisson process: calm periods at ratePerMs alternate with bursts at burstRatePerMs;
+     * both kinds of periods last an exponentially distributed time with the given means.
+     */
+    public static class Bursty extends Arrivals {
+        private final double[] meanGaps;
+        private final double[] meanPeriods;
+        private final Random rnd = new Random();
+        private int state; // 0 - calm, 1 - burst
+        private double switchAt = Double.NaN;
+
+        public Bursty(double ratePerMs, double burstRatePerMs, Duration meanCalm, Duration meanBurst) {
+            this.meanGaps = new double[] {1000000.0 / ratePerMs, 1000000.0 / burstRatePerMs};
+            this.meanPeriods = new double[] {meanCalm.toNanos(), meanBurst.toNanos()};
+        }
+
+        @Override
+        public long next(long previous) {
+            double at = previous;
+            if (Double.isNaN(switchAt)) {
+                switchAt = at + exponential(rnd, meanPeriods[state]);
+            }
+            while (true) {
+                var candidate = at + exponential(rnd, meanGaps[state]);
+                if (candidate < switchAt)
+                    return (long) candidate;
+                // the gaps are memoryless, so the next one can be drawn anew from the switch at the new rate
+                at = switchAt;
+                state = 1 - state;
+                switchAt = at + exponential(rnd, meanPeriods[state]);
+            }
+        }
+    }
+
+    /*
+     * Replay of recorded arrivals: a text file of timestamps (one per line, in the given unit, non-decreasing),
+     * replayed relative to the first one. The file is read through memory-mapped windows, so traces of any size
+     * stream through without being loaded on the heap. The load stops when the trace ends.
+     */
+    public static class Trace extends Arrivals {
+        private static final long WINDOW = 64 << 20;
+
+        private final FileChannel channel;
+        private final long size;
+        private final long unit;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long first = -1;
+
+        /*
+         * unit - nanoseconds per unit of the timestamps.
+         */
+        public Trace(Path file, long unit) {
+            this.unit = unit;
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ);
+                this.size = channel.size();
+                map(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public long next(long previous) {
+            var t = read();
+            if (t < 0) {
+                close();
+                return Long.MAX_VALUE;
+            }
+            if (first < 0)
+                first = t;
+            return origin + (t - first) * unit;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+        }
+
+        // next timestamp, or -1 at the end of the file; anything but digits separates them
+        private long read() {
+            try {
+                while (true) {
+                    while (window.hasRemaining() && !isDigit(window.get(window.position()))) {
+                        window.get();
+                    }
+                    var start = window.position();
+                    long value = 0;
+                    while (window.hasRemaining() && isDigit(window.get(window.position()))) {
+                        value = value * 10 + (window.get() - '0');
+                    }
+                    var end = windowStart + window.position();
+                    if (window.hasRemaining() || end == size)
+                        return window.position() > start ? value : -1;
+                    // the window ended, maybe in the middle of a number: map the next one from where the number starts
+                    map(windowStart + start);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+    }
+
+    private static double exponential(Random rnd, double mean) {
+        return -Math.log(1 - rnd.nextDouble()) * mean;
+    }
+}
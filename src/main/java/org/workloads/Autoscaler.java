@@ -0,0 +1,192 @@
+package org.workloads;
+
+import org.apache.pekko.actor.AbstractActorWithTimers;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.PoisonPill;
+import org.apache.pekko.actor.Props;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ * Scales the instances of a service behind a Group, the way Kubernetes' horizontal pod autoscaler does: every interval it asks
+ * the Group for its Load, and wants ceil(instances * load per instance / target) instances. New instances join the Group
+ * after the start delay, and then run cold for a while (see Service.ColdStart); surplus instances are drained, and the ones
+ * started here are stopped once they are done with their requests.
+ */
+public class Autoscaler extends AbstractActorWithTimers {
+
+    public enum Metric {
+        Utilisation, // active requests over the instances' availableConcurrency
+        InFlight // active requests per instance
+    }
+
+    /*
+     * metric, target - of the load per instance (e.g. Utilisation 0.7); within TOLERANCE of the target nothing changes.
+     * min, max - instances.
+     * interval - how often the load is checked.
+     * startDelay - from the decision to the new instance joining the Group (scheduling, pulling the image, starting the process).
+     * coldStart, coldConcurrency - how long a new instance runs at the share of its availableConcurrency.
+     * scaleDownDelay - stabilisation: the instances only go down to the most wanted over this window.
+     */
+    public record Policy(Metric metric, double target, int min, int max, Duration interval, Duration startDelay, Duration coldStart,
+                         double coldConcurrency, Duration scaleDownDelay) {}
+
+    private static final double TOLERANCE = 0.1;
+
+    private static class Evaluate {}
+    private record Started(ActorRef instance) {}
+    private record Recommendation(long at, int instances) {}
+
+    private final ActorRef group;
+    private final Supplier<Props> props;
+    private final Supplier<String> names;
+    private final Policy policy;
+    private final int availableConcurrency;
+    private final Clock clock;
+    private final Metrics metrics;
+    private int instancesSeries, startingSeries, drainingSeries;
+
+    private final List<ActorRef> instances; // in the Group, taking requests; the newest last
+    private final List<ActorRef> started = new ArrayList<>(); // created here; they get the Driver's ticks from here
+    private int starting;
+    private int draining;
+    private final ArrayDeque<Recommendation> recommendations = new ArrayDeque<>();
+
+    /*
+     * group - the Group balancing between the instances.
+     * instances - the instances in the Group to begin with; the Group may have others, which aren't scaled.
+     * props, names - of a new instance.
+     * availableConcurrency - of an instance.
+     * metrics - where to publish periodic samples of the instance counts; may be null.
+     */
+    public static Props props(ActorRef group, List<ActorRef> instances, Supplier<Props> props, Supplier<String> names, Policy policy,
+                              int availableConcurrency, Clock clock, Metrics metrics) {
+        return Props.create(Autoscaler.class, () -> new Autoscaler(group, instances, props, names, policy, availableConcurrency, clock, metrics));
+    }
+
+    public Autoscaler(ActorRef group, List<ActorRef> instances, Supplier<Props> props, Supplier<String> names, Policy policy,
+                      int availableConcurrency, Clock clock, Metrics metrics) {
+        this.group = group;
+        this.instances = new ArrayList<>(instances);
+        this.props = props;
+        this.names = names;
+        this.policy = policy;
+        this.availableConcurrency = availableConcurrency;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void preStart() {
+        if (clock.isVirtual()) {
+            clock.schedule(policy.interval().toNanos(), getSelf(), new Evaluate());
+        } else {
+            getTimers().startTimerAtFixedRate("evaluate", new Evaluate(), policy.interval());
+        }
+        if (metrics == null)
+            return;
+        var name = getSelf().path().name();
+        instancesSeries = metrics.register(name, "instances");
+        startingSeries = metrics.register(name, "starting");
+        drainingSeries = metrics.register(name, "draining");
+        metrics.startSampling(getSelf(), getTimers());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Evaluate.class, e -> group.tell(new Group.GetLoad(), getSelf()))
+                .match(Group.Load.class, l -> scale(l))
+                .match(Started.class, s -> join(s.instance()))
+                .match(Group.Drained.class, d -> stop(d.instance()))
+                .match(Group.DrainRefused.class, d -> {
+                    // the Group keeps its last instance
+                    draining--;
+                    instances.add(d.instance());
+                })
+                .match(Driver.Tick.class, t -> {
+                    for (var instance : started) {
+                        instance.tell(t, getSelf());
+                    }
+                })
+                .match(Metrics.Sample.class, s -> sample())
+                .build();
+    }
+
+    private void sample() {
+        metrics.record(instancesSeries, instances.size());
+        metrics.record(startingSeries, starting);
+        metrics.record(drainingSeries, draining);
+        metrics.sampled(getSelf());
+    }
+
+    private void scale(Group.Load load) {
+        var now = clock.now();
+        if (clock.isVirtual()) {
+            clock.schedule(policy.interval().toNanos(), getSelf(), new Evaluate());
+        }
+
+        var current = instances.size() + starting;
+        var perInstance = (double) load.active() / Math.max(load.instances(), 1);
+        if (policy.metric() == Metric.Utilisation) {
+            perInstance /= availableConcurrency;
+        }
+        var ratio = perInstance / policy.target();
+        var wanted = Math.abs(ratio - 1) <= TOLERANCE ? current : (int) Math.ceil(load.instances() * ratio);
+        wanted = Math.max(policy.min(), Math.min(policy.max(), wanted));
+
+        // scaling down takes the most instances wanted over the stabilisation window
+        recommendations.addLast(new Recommendation(now, wanted));
+        while (recommendations.peekFirst().at() < now - policy.scaleDownDelay().toNanos()) {
+            recommendations.pollFirst();
+        }
+        if (wanted < current) {
+            for (var r : recommendations) {
+                wanted = Math.max(wanted, r.instances());
+            }
+        }
+
+        for (int i = current; i < wanted; i++) {
+            start();
+        }
+        // the newest instances go first; the starting ones join all the same
+        for (int i = wanted; i < current && instances.size() > 1; i++) {
+            var instance = instances.remove(instances.size() - 1);
+            draining++;
+            group.tell(new Group.Drain(instance), getSelf());
+        }
+    }
+
+    private void start() {
+        var instance = getContext().actorOf(props.get(), names.get());
+        started.add(instance);
+        starting++;
+        if (clock.isVirtual()) {
+            clock.schedule(policy.startDelay().toNanos(), getSelf(), new Started(instance));
+        } else {
+            getTimers().startSingleTimer(instance, new Started(instance), policy.startDelay());
+        }
+    }
+
+    private void join(ActorRef instance) {
+        starting--;
+        instances.add(instance);
+        if (policy.coldConcurrency() < 1) {
+            var concurrency = Math.max(1, (int) Math.ceil(availableConcurrency * policy.coldConcurrency()));
+            instance.tell(new Service.ColdStart(clock.now() + policy.coldStart().toNanos(), concurrency), getSelf());
+        }
+        group.tell(new Group.Join(instance), getSelf());
+    }
+
+    // only the instances started here are stopped; the ones the scenario created get the Driver's ticks, so they're left idle
+    private void stop(ActorRef instance) {
+        draining--;
+        if (started.remove(instance)) {
+            instance.tell(PoisonPill.getInstance(), getSelf());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Source of time for the actors.
+ * With the wall clock the Driver broadcasts Driver.Tick to every actor once a millisecond;
+ * with a virtual clock (see Simulation) time only moves between scheduled events, so actors schedule their own wake-ups.
+ */
+public abstract class Clock {
+
+    /*
+     * Monotonic time in nanoseconds; only differences between readings are meaningful.
+     */
+    public abstract long now();
+
+    public abstract boolean isVirtual();
+
+    /*
+     * Delivers the message to the target after the delay (in nanoseconds). Only supported by virtual clocks;
+     * with the wall clock actors use their timers.
+     */
+    public abstract void schedule(long delay, ActorRef target, Object message);
+
+    /*
+     * Id of a new request (see Request.RequestId), unique within the run the clock drives, so that simulations running
+     * side by side (see Sweep) don't share a counter. Ids start from 1; 0 marks empty slots in LongIntMap.
+     */
+    public abstract long nextRequestId();
+
+    public static class Wall extends Clock {
+        // the actors create requests on the dispatchers' threads
+        private final AtomicLong lastRequestId = new AtomicLong();
+
+        @Override
+        public long now() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return false;
+        }
+
+        @Override
+        public void schedule(long delay, ActorRef target, Object message) {
+            throw new RuntimeException("Wall clock doesn't schedule events; use actor timers.");
+        }
+
+        @Override
+        public long nextRequestId() {
+            return lastRequestId.incrementAndGet();
+        }
+    }
+}
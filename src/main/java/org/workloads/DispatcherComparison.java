@@ -0,0 +1,50 @@
+package org.workloads;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Runs a scenario on the wall clock once per dispatcher configuration (one after another, as they compete for the CPU),
+ * and prints a table of the goodput and the jitter of the Driver's ticks per configuration.
+ * The scenario's own dispatchers block and metrics block are ignored.
+ */
+public class DispatcherComparison {
+
+    // name -> dispatchers block; see application.conf
+    static final Map<String, String> CONFIGURATIONS = new LinkedHashMap<>();
+    static {
+        CONFIGURATIONS.put("default", "{}");
+        CONFIGURATIONS.put("dedicated", "{ driver = pinned, groups = groups, services = services }");
+        CONFIGURATIONS.put("virtual-threads", "{ driver = pinned, groups = groups, services = virtual-threads }");
+    }
+
+    private final Config base;
+
+    /*
+     * base - unresolved scenario.
+     */
+    public DispatcherComparison(Config base) {
+        this.base = base.withoutPath("dispatchers").withoutPath("metrics");
+    }
+
+    public void run() throws InterruptedException {
+        String name = null;
+        for (var c : CONFIGURATIONS.entrySet()) {
+            var scenario = new Scenario(ConfigFactory.parseString("dispatchers = " + c.getValue()).withFallback(base));
+            if (name == null) {
+                name = scenario.name;
+                System.out.println(String.format("Scenario %s (%s), %d dispatcher configurations.", name, scenario.duration, CONFIGURATIONS.size()));
+                System.out.println("dispatchers,sent,ok,goodput,ok_p99_ms,tick_jitter_p50_us,tick_jitter_p99_us,tick_jitter_max_us");
+            }
+            var results = scenario.run(false, false);
+            var ok = results.latencies(Response.Status.Ok);
+            var jitter = results.tickJitter;
+            var seconds = scenario.duration.toNanos() / 1e9;
+            System.out.println(String.format("%s,%d,%d,%.1f,%.1f,%d,%d,%d", c.getKey(), results.sent, ok.count(), ok.count() / seconds,
+                    ok.percentile(99) / 1e6, jitter.percentile(50) / 1000, jitter.percentile(99) / 1000, jitter.max() / 1000));
+        }
+    }
+}
@@ -3,40 +3,94 @@ package org.workloads;
 import org.apache.pekko.actor.*;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.List;
 
-import static java.time.temporal.ChronoUnit.NANOS;
-
 public class Driver extends AbstractActorWithTimers {
 
     static class Tick {}
     public final static class Start {}
     public final static class Stop {}
 
-    private LocalDateTime nextReport;
-    private int sent;
-    private int successes;
-    private int failures;
-    private long totalLatencySuccesses;
-    private long totalLatencyFailed;
+    /*
+     * Whole-run results, filled in when the driver stops.
+     */
+    public static class Results {
+        public long sent;
+        public Histogram[] latencies = new Histogram[Response.Status.values().length];
+        public Histogram tickJitter = new Histogram(); // how far the wall clock ticks are off their period, nanoseconds
+
+        public Results() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new Histogram();
+            }
+        }
+
+        public Histogram latencies(Response.Status status) {
+            return latencies[status.ordinal()];
+        }
+    }
 
-    private int ratePerMs;
+    private static final long REPORT_PERIOD = Duration.ofSeconds(1).toNanos();
+    private static final Duration TICK_PERIOD = Duration.ofMillis(1);
 
-    private List<ActorRef> clients;
+    private long nextReport;
+    private int sent;
+    private long totalSent;
+    // latencies per Response.Status of the current report period, and of the whole run
+    private Histogram[] latencies = new Histogram[Response.Status.values().length];
+    private Histogram[] totalLatencies = new Histogram[Response.Status.values().length];
+    private Histogram tickJitter = new Histogram();
+    private long lastTick;
+
+    private Arrivals arrivals;
+    private long nextArrival; // intended time of the next request
+
+    private ActorRef generator;
+    private int clients;
     private int nextClient = 0;
     List<ActorRef> allActors;
 
-    static Props props(List<ActorRef> clients, int ratePerMs, List<ActorRef> allActors) {
+    private Clock clock;
+    private final boolean batching;
+    private Outbox outbox; // created in preStart, once the actor has its self
+    private boolean stopped;
+    private Results results;
+    private boolean verbose;
+
+    /*
+     * generator - the LoadGenerator sending the requests downstream.
+     * clients - number of its logical clients; requests go from them in turn.
+     * arrivals - when the requests are meant to be sent; they are timed from then, however late the driver gets to them.
+     * results - receives the whole-run results when the driver stops; may be null.
+     * verbose - print the per-second reports and the summary.
+     * batching - send the requests of a tick to the generator in one batch (see Outbox).
+     */
+    static Props props(ActorRef generator, int clients, Arrivals arrivals, List<ActorRef> allActors, Clock clock, Results results, boolean verbose,
+                       boolean batching) {
         // You need to specify the actual type of the returned actor
         // since Java 8 lambdas have some runtime type information erased
-        return Props.create(Driver.class, () -> new Driver(clients, ratePerMs, allActors));
+        return Props.create(Driver.class, () -> new Driver(generator, clients, arrivals, allActors, clock, results, verbose, batching));
     }
 
-    public Driver(List<ActorRef> clients, int ratePerMs, List<ActorRef> allActors) {
+    public Driver(ActorRef generator, int clients, Arrivals arrivals, List<ActorRef> allActors, Clock clock, Results results, boolean verbose,
+                  boolean batching) {
+        this.batching = batching;
+        this.generator = generator;
         this.clients = clients;
-        this.ratePerMs = ratePerMs;
+        this.arrivals = arrivals;
         this.allActors = allActors;
+        this.clock = clock;
+        this.results = results;
+        this.verbose = verbose;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+            totalLatencies[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void preStart() {
+        outbox = new Outbox(getSelf(), batching);
     }
 
     @Override
@@ -45,53 +99,121 @@ public class Driver extends AbstractActorWithTimers {
                 .match(Start.class, r -> start())
                 .match(Tick.class, t -> tick(t))
                 .match(Response.class, r -> response(r))
+                .match(Outbox.Batch.class, b -> {
+                    for (var m : b.messages()) {
+                        response((Response) m);
+                    }
+                })
                 .match(Stop.class, r -> stop())
                 .build();
     }
 
     private void response(Response r) {
-        var latency = NANOS.between(r.request.created, LocalDateTime.now());
-        if (r.status == Response.Status.Ok) {
-            successes++;
-            totalLatencySuccesses += latency;
-        } else {
-            failures++;
-            totalLatencyFailed += latency;
-        }
+        latencies[r.status.ordinal()].record(clock.now() - r.request.created);
     }
 
     private void tick(Tick t) {
-        for (var a : allActors) {
-            a.tell(t, ActorRef.noSender());
+        var now = clock.now();
+        if (clock.isVirtual()) {
+            // the rest of the actors schedule their own wake-ups
+            if (stopped)
+                return;
+        } else {
+            if (lastTick != 0)
+                tickJitter.record(Math.abs(now - lastTick - TICK_PERIOD.toNanos()));
+            lastTick = now;
+            for (var a : allActors) {
+                a.tell(t, ActorRef.noSender());
+            }
         }
 
-        for (int i = 0; i < ratePerMs; i++) {
-            var r = new Request(0);
-            r.returnPath.add(getSelf());
-            clients.get(nextClient).tell(r, getSelf());
-            nextClient = (nextClient + 1) % clients.size();
+        while (nextArrival <= now) {
+            var r = new Request(clock.nextRequestId(), 0, nextArrival);
+            r.enter(getSelf());
+            r.connection = nextClient;
+            outbox.tell(generator, r);
+            nextClient = (nextClient + 1) % clients;
             this.sent++;
+            nextArrival = arrivals.next(nextArrival);
         }
+        outbox.flush();
 
-        if (LocalDateTime.now().isAfter(nextReport)) {
-            nextReport = nextReport.plus(Duration.ofSeconds(1));
-            var avgLatencySuccess = successes == 0 ? 0 : totalLatencySuccesses / successes / 1000000;
-            var avgLatencyFailed = failures == 0 ? 0 : totalLatencyFailed / failures / 1000000;
-            System.out.println(String.format("Sent %d; succeeded %d (latency %d); failed %d (latency %d).", sent, successes, avgLatencySuccess, failures, avgLatencyFailed));
+        if (now > nextReport) {
+            nextReport += REPORT_PERIOD;
+            if (verbose)
+                System.out.println(report("Sent", sent, latencies));
+            totalSent += sent;
             sent = 0;
-            successes = 0;
-            failures = 0;
-            totalLatencySuccesses = 0;
-            totalLatencyFailed = 0;
+            for (int i = 0; i < latencies.length; i++) {
+                totalLatencies[i].add(latencies[i]);
+                latencies[i].reset();
+            }
         }
+
+        if (clock.isVirtual())
+            scheduleTick(now, t);
+    }
+
+    /*
+     * Prints the summary of the whole run and hands it to results once the actor system stops the driver.
+     */
+    @Override
+    public void postStop() {
+        arrivals.close();
+        for (int i = 0; i < latencies.length; i++) {
+            totalLatencies[i].add(latencies[i]);
+        }
+        if (verbose)
+            System.out.println(report("Total: sent", totalSent + sent, totalLatencies));
+        if (results != null) {
+            results.sent += totalSent + sent;
+            for (int i = 0; i < latencies.length; i++) {
+                results.latencies[i].add(totalLatencies[i]);
+            }
+            results.tickJitter.add(tickJitter);
+        }
+    }
+
+    // latencies are reported in milliseconds
+    private static String report(String title, long sent, Histogram[] latencies) {
+        var sb = new StringBuilder(String.format("%s %d", title, sent));
+        for (var status : Response.Status.values()) {
+            var h = latencies[status.ordinal()];
+            sb.append(String.format("; %s %d", status, h.count()));
+            if (h.count() > 0) {
+                sb.append(String.format(" (p50 %d, p90 %d, p99 %d, p99.9 %d, max %d)",
+                        h.percentile(50) / 1000000, h.percentile(90) / 1000000, h.percentile(99) / 1000000,
+                        h.percentile(99.9) / 1000000, h.max() / 1000000));
+            }
+        }
+        return sb.append(".").toString();
+    }
+
+    /*
+     * With the virtual clock the driver wakes up exactly at the next arrival (or report).
+     */
+    private void scheduleTick(long now, Tick t) {
+        clock.schedule(Math.min(nextArrival, nextReport + 1) - now, getSelf(), t);
     }
 
     private void start() {
-        nextReport = LocalDateTime.now().plus(Duration.ofSeconds(1));
-        getTimers().startTimerAtFixedRate("client", new Tick(), Duration.ofMillis(1));
+        var now = clock.now();
+        nextReport = now + REPORT_PERIOD;
+        arrivals.start(now);
+        nextArrival = arrivals.next(now);
+        if (clock.isVirtual()) {
+            stopped = false;
+            scheduleTick(now, new Tick());
+        } else {
+            getTimers().startTimerAtFixedRate("client", new Tick(), TICK_PERIOD);
+        }
     }
 
     private void stop() {
-        getTimers().cancel("client");
+        if (clock.isVirtual()) {
+            stopped = true;
+        } else {
+            getTimers().cancel("client");
+        }
     }
 }
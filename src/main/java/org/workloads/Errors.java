@@ -1,22 +1,21 @@
 package org.workloads;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.Random;
 
 public abstract class Errors {
-    public abstract boolean error(Request r);
+    public abstract boolean error(Request r, long now);
 
     public static class None extends Errors {
         @Override
-        public boolean error(Request r) {
+        public boolean error(Request r, long now) {
             return false;
         }
     }
 
     public static class Always extends Errors {
         @Override
-        public boolean error(Request r) {
+        public boolean error(Request r, long now) {
             return true;
         }
     }
@@ -30,7 +29,7 @@ public abstract class Errors {
         }
 
         @Override
-        public boolean error(Request r) {
+        public boolean error(Request r, long now) {
             return (rnd.nextDouble() < share);
         }
     }
@@ -50,18 +49,22 @@ public abstract class Errors {
 //    }
 
     public static class OnceInAwhile extends Errors {
-        private Duration period;
-        private LocalDateTime nextFire;
+        private long period;
+        private long nextFire;
+        private boolean started;
 
         public OnceInAwhile(Duration period) {
-            this.period = period;
-            nextFire = LocalDateTime.now().plus(period);
+            this.period = period.toNanos();
         }
 
         @Override
-        public boolean error(Request r) {
-            if (nextFire.isBefore(LocalDateTime.now())) {
-                nextFire = LocalDateTime.now().plus(period);
+        public boolean error(Request r, long now) {
+            if (!started) {
+                started = true;
+                nextFire = now + period;
+            }
+            if (nextFire < now) {
+                nextFire = now + period;
                 return true;
             }
             return false;
@@ -1,112 +1,715 @@
 package org.workloads;
 
-import org.apache.pekko.actor.AbstractActor;
+import org.apache.pekko.actor.AbstractActorWithTimers;
 import org.apache.pekko.actor.ActorRef;
 import org.apache.pekko.actor.Props;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
-public class Group extends AbstractActor {
+public class Group extends AbstractActorWithTimers {
 
     public enum Balancing {
         LeastBusyEnvoy,
         RoundRobinEnvoy,
         ClusterIP,
+        PowerOfTwoChoices,
     }
 
-    public static class Connect{}
+    /*
+     * Opens connections from the sender; requests pick theirs by Request.connection. Only ClusterIP balancing cares.
+     */
+    public static class Connect {
+        public final int connections;
 
-    private List<ActorRef> downstream;
+        public Connect() {
+            this(1);
+        }
+
+        public Connect(int connections) {
+            this.connections = connections;
+        }
+    }
+
+    /*
+     * Membership (see Autoscaler): Join adds an instance; Drain stops sending the instance new requests, and once its active requests
+     * are done, removes it and answers the sender with Drained. The ClusterIP connections to a draining instance move to the others
+     * (as if the clients reconnected); the connections opened before an instance joins don't move to it.
+     * The last instance taking requests isn't drained: the sender gets DrainRefused, and the instance stays.
+     */
+    public record Join(ActorRef instance) {}
+    public record Drain(ActorRef instance) {}
+    public record Drained(ActorRef instance) {}
+    public record DrainRefused(ActorRef instance) {}
+
+    /*
+     * Asks for the Load: instances taking new requests, and their active requests.
+     */
+    public static class GetLoad {}
+    public record Load(int instances, int active) {}
+
+    /*
+     * Envoy's outlier detection: an instance is ejected (gets no requests) after consecutiveErrors non-Ok responses in a row,
+     * or, every interval, when its success rate is more than stdevFactor standard deviations below the mean of the instances
+     * with at least minRequests responses, or (if latencyFactor > 0) its mean service time is over latencyFactor times the mean.
+     * The n-th ejection of an instance lasts n * baseEjection; at most maxEjectionPercent of the instances (but one) are ejected at once.
+     */
+    public record OutlierDetection(Duration interval, int consecutiveErrors, Duration baseEjection, int maxEjectionPercent,
+                                   int minRequests, double stdevFactor, double latencyFactor) {
+        public static final OutlierDetection DEFAULT = new OutlierDetection(Duration.ofSeconds(10), 5, Duration.ofSeconds(30), 10, 100, 1.9, 0);
+    }
+
+    /*
+     * Envoy's circuit breaker of the upstream cluster: with maxRequests active requests, more are Discarded right away.
+     */
+    public record CircuitBreaker(int maxRequests) {}
+
+    /*
+     * Active request counters of the downstream instances, kept sorted so that the least busy one is always first.
+     * Instances with the same count form a bucket: firstWith[c] is the position in order of the first instance with count >= c.
+     * A counter only moves by one, so an update is a swap with the bucket's boundary element.
+     * Parked instances (the removed ones, see Group.Drain) are kept past the buckets, from position live on, so they are never picked.
+     */
+    static class ActiveIndex {
+        private int[] counts;
+        private int[] order;
+        private int[] positions;
+        private int[] firstWith;
+        private int live;
+
+        ActiveIndex(int size) {
+            counts = new int[size];
+            order = new int[size];
+            positions = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+                positions[i] = i;
+            }
+            firstWith = new int[] {0, size};
+            live = size;
+        }
+
+        // a new instance, with no active requests; it goes to the end of the zero bucket
+        int add() {
+            var instance = counts.length;
+            counts = Arrays.copyOf(counts, instance + 1);
+            order = Arrays.copyOf(order, instance + 1);
+            positions = Arrays.copyOf(positions, instance + 1);
+            order[instance] = instance;
+            positions[instance] = instance;
+            unpark(instance);
+            return instance;
+        }
+
+        // takes the instance, which has no active requests, out of the buckets
+        void park(int instance) {
+            // move it up to the end of every bucket in turn: swap it with the last instance of the bucket, from the zeros up
+            for (int c = 1; c < firstWith.length; c++) {
+                swap(instance, firstWith[c] - 1);
+                firstWith[c]--;
+            }
+            live--;
+        }
+
+        // puts the parked instance back, at the end of the zero bucket
+        void unpark(int instance) {
+            swap(instance, live);
+            // past the end of every bucket but the zeros: swap it with the first instance of the buckets, from the top down
+            for (int c = firstWith.length - 1; c >= 1; c--) {
+                if (firstWith[c] < live) {
+                    swap(instance, firstWith[c]);
+                }
+                firstWith[c]++;
+            }
+            live++;
+        }
+
+        int count(int instance) {
+            return counts[instance];
+        }
+
+        int leastBusy() {
+            return order[0];
+        }
+
+        // the instance at the position in the order, from the least busy
+        int nth(int position) {
+            return order[position];
+        }
+
+        void increment(int instance) {
+            var c = counts[instance];
+            if (c + 2 >= firstWith.length) {
+                var grown = Arrays.copyOf(firstWith, firstWith.length * 2);
+                Arrays.fill(grown, firstWith.length, grown.length, live);
+                firstWith = grown;
+            }
+            swap(instance, firstWith[c + 1] - 1);
+            firstWith[c + 1]--;
+            counts[instance]++;
+        }
+
+        void decrement(int instance) {
+            var c = counts[instance];
+            if (c <= 0) {
+                throw new RuntimeException("Less busy than zero");
+            }
+            swap(instance, firstWith[c]);
+            firstWith[c]++;
+            counts[instance]--;
+        }
+
+        private void swap(int instance, int position) {
+            var other = order[position];
+            var from = positions[instance];
+            order[position] = instance;
+            order[from] = other;
+            positions[instance] = position;
+            positions[other] = from;
+        }
+    }
+
+    /*
+     * The instances taking requests (neither ejected, draining nor removed) in no particular order, and the position of every
+     * instance in it, so that one is picked at random, added or taken out in O(1).
+     */
+    static class AvailableSet {
+        private int[] instances;
+        private int[] positions; // -1 when not available
+        private int size;
+
+        AvailableSet(int size) {
+            instances = new int[size];
+            positions = new int[size];
+            for (int i = 0; i < size; i++) {
+                instances[i] = i;
+                positions[i] = i;
+            }
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int k) {
+            return instances[k];
+        }
+
+        boolean contains(int instance) {
+            return instance < positions.length && positions[instance] >= 0;
+        }
+
+        void add(int instance) {
+            if (instance >= positions.length) {
+                var old = positions.length;
+                instances = Arrays.copyOf(instances, instance + 1);
+                positions = Arrays.copyOf(positions, instance + 1);
+                Arrays.fill(positions, old, positions.length, -1);
+            }
+            if (positions[instance] >= 0)
+                return;
+            instances[size] = instance;
+            positions[instance] = size++;
+        }
+
+        void remove(int instance) {
+            if (!contains(instance))
+                return;
+            var position = positions[instance];
+            var last = instances[--size];
+            instances[position] = last;
+            positions[last] = position;
+            positions[instance] = -1;
+        }
+    }
+
+    private List<ActorRef> downstream; // null in the slots of the removed instances
     private int counter;
-    private Map<ActorRef, Integer> active;
-    private Map<ActorRef, ActorRef> connections = new HashMap<>();
+    private Map<ActorRef, Integer> indices = new HashMap<>();
+    private ActiveIndex active;
+    private AvailableSet available;
+    private Map<ActorRef, int[]> connections = new HashMap<>(); // instance of every connection of the sender
     private Balancing balancing;
+    private Random rnd = new Random();
+    private Metrics metrics;
+    private final boolean batching;
+    private Outbox outbox; // created in preStart, once the actor has its self
+    private int[] activeSeries;
+    private int[] ejectedSeries;
+    private int ejectionsSeries, overflowsSeries;
+
+    // membership: draining instances (and the removed ones, whose slots are free for the next Join) take no new requests
+    private boolean[] draining;
+    private ActorRef[] drainedTo; // who asked to drain the instance
+    private int drainingCount; // not counting the removed ones
+    private ArrayList<Integer> freeSlots = new ArrayList<>();
+
+    private Clock clock;
+    private CircuitBreaker breaker;
+    private int activeTotal;
+    private long overflows;
+
+    // outlier detection; the per-instance counters are of the current interval
+    private OutlierDetection outliers;
+    private long nextEvaluation;
+    private int[] successes;
+    private int[] failures;
+    private int[] consecutiveErrors;
+    private long[] serviceTime; // sum of the Ok responses' service times, nanoseconds
+    private boolean[] ejected;
+    private long[] ejectedUntil;
+    private int[] ejections; // of every instance, so far
+    private int ejectedCount;
+    private int maxEjected;
+    private long ejectionsTotal;
 
-    static Props props(List<ActorRef> downstream, Balancing balancing) {
-        return Props.create(Group.class, () -> new Group(downstream, balancing));
+    /*
+     * downstream - instances to balance between.
+     * balancing - the balancing strategy.
+     * metrics - where to publish periodic samples of the active counters; may be null.
+     */
+    static Props props(List<ActorRef> downstream, Balancing balancing, Metrics metrics) {
+        return props(downstream, balancing, null, null, null, metrics, false);
     }
 
-    public Group(List<ActorRef> downstream, Balancing balancing) {
+    /*
+     * outliers - outlier detection; may be null.
+     * breaker - circuit breaker; may be null.
+     * clock - needed with outlier detection; may be null without it.
+     * batching - coalesce the requests and responses sent in a turn per destination (see Outbox).
+     */
+    static Props props(List<ActorRef> downstream, Balancing balancing, OutlierDetection outliers, CircuitBreaker breaker, Clock clock, Metrics metrics,
+                       boolean batching) {
+        return Props.create(Group.class, () -> new Group(downstream, balancing, outliers, breaker, clock, metrics, batching));
+    }
+
+    public Group(List<ActorRef> downstream, Balancing balancing, Metrics metrics) {
+        this(downstream, balancing, null, null, null, metrics, false);
+    }
+
+    public Group(List<ActorRef> downstream, Balancing balancing, OutlierDetection outliers, CircuitBreaker breaker, Clock clock, Metrics metrics,
+                 boolean batching) {
+        this.batching = batching;
         this.balancing = balancing;
-        this.downstream = downstream;
-        this.active = new HashMap<>();
-        for (var a : downstream) {
-            active.put(a, 0);
+        this.downstream = new ArrayList<>(downstream);
+        this.metrics = metrics;
+        this.active = new ActiveIndex(downstream.size());
+        this.available = new AvailableSet(downstream.size());
+        for (int i = 0; i < downstream.size(); i++) {
+            indices.put(downstream.get(i), i);
+        }
+        this.breaker = breaker;
+        this.clock = clock;
+        this.outliers = outliers;
+        var size = downstream.size();
+        this.ejected = new boolean[size];
+        this.draining = new boolean[size];
+        this.drainedTo = new ActorRef[size];
+        if (outliers != null) {
+            this.successes = new int[size];
+            this.failures = new int[size];
+            this.consecutiveErrors = new int[size];
+            this.serviceTime = new long[size];
+            this.ejectedUntil = new long[size];
+            this.ejections = new int[size];
+            this.maxEjected = maxEjected(size);
+            this.nextEvaluation = clock.now() + outliers.interval().toNanos();
         }
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(Request.class, r -> handleRequest(r))
-                .match(Response.class, r -> handleResponse(r))
-                .match(Connect.class, c -> handleConnect())
+                .match(Request.class, r -> { handleRequest(r); outbox.flush(); })
+                .match(Response.class, r -> { handleResponse(r); outbox.flush(); })
+                .match(Outbox.Batch.class, b -> handleBatch(b))
+                .match(Connect.class, c -> handleConnect(c))
+                .match(Join.class, j -> join(j.instance()))
+                .match(Drain.class, d -> drain(d.instance()))
+                .match(GetLoad.class, l -> getSender().tell(load(), getSelf()))
                 .match(Driver.Tick.class, t -> tick())
+                .match(Metrics.Sample.class, s -> sample())
                 .build();
     }
 
-    private void handleConnect() {
+    @Override
+    public void preStart() {
+        outbox = new Outbox(getSelf(), batching);
+        if (metrics == null)
+            return;
+        activeSeries = new int[downstream.size()];
+        if (outliers != null) {
+            ejectedSeries = new int[downstream.size()];
+        }
+        for (int i = 0; i < downstream.size(); i++) {
+            registerSeries(i);
+        }
+        var name = getSelf().path().name();
+        if (outliers != null) {
+            ejectionsSeries = metrics.register(name, "ejections");
+        }
+        if (breaker != null) {
+            overflowsSeries = metrics.register(name, "overflows");
+        }
+        metrics.startSampling(getSelf(), getTimers());
+    }
+
+    private void registerSeries(int instance) {
+        var name = getSelf().path().name();
+        var instanceName = downstream.get(instance).path().name();
+        activeSeries[instance] = metrics.register(name, "active:" + instanceName);
+        if (outliers != null) {
+            ejectedSeries[instance] = metrics.register(name, "ejected:" + instanceName);
+        }
+    }
+
+    private void sample() {
+        for (int i = 0; i < activeSeries.length; i++) {
+            if (downstream.get(i) != null)
+                metrics.record(activeSeries[i], active.count(i));
+        }
+        if (outliers != null) {
+            for (int i = 0; i < ejectedSeries.length; i++) {
+                if (downstream.get(i) != null)
+                    metrics.record(ejectedSeries[i], ejected[i] ? 1 : 0);
+            }
+            metrics.record(ejectionsSeries, ejectionsTotal);
+        }
+        if (breaker != null) {
+            metrics.record(overflowsSeries, overflows);
+        }
+        metrics.sampled(getSelf());
+    }
+
+    private void handleBatch(Outbox.Batch b) {
+        for (var m : b.messages()) {
+            if (m instanceof Request r) {
+                handleRequest(r);
+            } else {
+                handleResponse((Response) m);
+            }
+        }
+        outbox.flush();
+    }
+
+    private void handleConnect(Connect c) {
         if (this.balancing != Balancing.ClusterIP)
             return;
-        this.connections.put(getSender(), getRoundRobin());
+        var instances = new int[c.connections];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = getRoundRobinHealthy();
+        }
+        this.connections.put(getSender(), instances);
+    }
+
+    private void join(ActorRef instance) {
+        int i;
+        if (freeSlots.isEmpty()) {
+            i = active.add();
+            downstream.add(instance);
+            grow(i + 1);
+        } else {
+            i = freeSlots.remove(freeSlots.size() - 1);
+            downstream.set(i, instance);
+            draining[i] = false;
+            active.unpark(i);
+            if (outliers != null) {
+                successes[i] = 0;
+                failures[i] = 0;
+                consecutiveErrors[i] = 0;
+                serviceTime[i] = 0;
+                ejections[i] = 0;
+            }
+        }
+        indices.put(instance, i);
+        available.add(i);
+        if (outliers != null) {
+            maxEjected = maxEjected(serving());
+        }
+        if (metrics != null) {
+            registerSeries(i);
+        }
+    }
+
+    private void drain(ActorRef instance) {
+        var i = indices.get(instance);
+        if (i == null || draining[i])
+            return;
+        if (serving() == 1) {
+            getSender().tell(new DrainRefused(instance), getSelf());
+            return;
+        }
+        draining[i] = true;
+        drainingCount++;
+        drainedTo[i] = getSender();
+        available.remove(i);
+        if (outliers != null) {
+            maxEjected = maxEjected(serving());
+        }
+        if (available.size() == 0) {
+            // like Envoy's panic mode: rather the ejected instances than none
+            for (int e = 0; e < ejected.length; e++) {
+                if (ejected[e]) {
+                    ejected[e] = false;
+                    if (!draining[e])
+                        available.add(e);
+                }
+            }
+            ejectedCount = 0;
+        }
+        for (var instances : connections.values()) {
+            for (int c = 0; c < instances.length; c++) {
+                if (instances[c] == i) {
+                    instances[c] = getRoundRobinHealthy();
+                }
+            }
+        }
+        if (active.count(i) == 0) {
+            remove(i);
+        }
+    }
+
+    // the draining instance is done: its slot is free for the next Join
+    private void remove(int i) {
+        var instance = downstream.get(i);
+        indices.remove(instance);
+        downstream.set(i, null);
+        if (ejected[i]) {
+            ejected[i] = false;
+            ejectedCount--;
+        }
+        drainingCount--;
+        active.park(i);
+        freeSlots.add(i);
+        drainedTo[i].tell(new Drained(instance), getSelf());
+        drainedTo[i] = null;
+    }
+
+    private Load load() {
+        int active = 0;
+        for (int i = 0; i < downstream.size(); i++) {
+            if (!draining[i])
+                active += this.active.count(i);
+        }
+        return new Load(serving(), active);
+    }
+
+    // instances taking new requests: neither draining nor removed
+    private int serving() {
+        return downstream.size() - drainingCount - freeSlots.size();
+    }
+
+    private boolean isAvailable(int instance) {
+        return available.contains(instance);
+    }
+
+    private int maxEjected(int size) {
+        return Math.min(size - 1, Math.max(1, size * outliers.maxEjectionPercent() / 100));
+    }
+
+    // per-instance arrays for the instances up to size
+    private void grow(int size) {
+        ejected = Arrays.copyOf(ejected, size);
+        draining = Arrays.copyOf(draining, size);
+        drainedTo = Arrays.copyOf(drainedTo, size);
+        if (outliers != null) {
+            successes = Arrays.copyOf(successes, size);
+            failures = Arrays.copyOf(failures, size);
+            consecutiveErrors = Arrays.copyOf(consecutiveErrors, size);
+            serviceTime = Arrays.copyOf(serviceTime, size);
+            ejectedUntil = Arrays.copyOf(ejectedUntil, size);
+            ejections = Arrays.copyOf(ejections, size);
+        }
+        if (activeSeries != null) {
+            activeSeries = Arrays.copyOf(activeSeries, size);
+        }
+        if (ejectedSeries != null) {
+            ejectedSeries = Arrays.copyOf(ejectedSeries, size);
+        }
     }
 
     private void tick() {
     }
 
     private void handleResponse(Response r) {
-        var last = r.request.returnPath.removeLast();
-        if (!last.equals(this.getSelf())) {
-            throw new RuntimeException("Routing error");
+        var next = r.request.leave(this.getSelf());
+
+        var index = indices.get(getSender());
+        if (index == null) {
+            throw new RuntimeException("Didn't find downstream activity stats");
+        }
+        active.decrement(index);
+        activeTotal--;
+        if (outliers != null && !draining[index]) {
+            hasResult(index, r, clock.now());
+        }
+        if (draining[index] && active.count(index) == 0) {
+            remove(index);
         }
+        outbox.tell(next, r);
+    }
 
-        var sender = getSender();
-        var wasBusy = active.get(sender);
-        if (wasBusy <= 0) {
-            throw new RuntimeException("Less busy than zero");
+    private void hasResult(int instance, Response r, long now) {
+        if (r.status == Response.Status.Ok) {
+            successes[instance]++;
+            consecutiveErrors[instance] = 0;
+            serviceTime[instance] += now - r.request.started;
+        } else {
+            failures[instance]++;
+            if (++consecutiveErrors[instance] >= outliers.consecutiveErrors() && !ejected[instance]) {
+                eject(instance, now);
+            }
         }
-        active.put(getSender(), wasBusy - 1);
-        r.request.returnPath.getLast().tell(r, getSelf());
+        evaluate(now);
+    }
+
+    private void eject(int instance, long now) {
+        if (ejectedCount >= maxEjected)
+            return;
+        ejected[instance] = true;
+        ejectedCount++;
+        available.remove(instance);
+        ejections[instance]++;
+        ejectionsTotal++;
+        ejectedUntil[instance] = now + outliers.baseEjection().toNanos() * ejections[instance];
+        consecutiveErrors[instance] = 0;
     }
 
-    private ActorRef getLeastBusy() {
-        var leastBusy = downstream.get(0);
-        var leastBusyCount = active.get(leastBusy);
-        for (var e : active.entrySet()) {
-            if (e.getValue() < leastBusyCount) {
-                leastBusyCount = e.getValue();
-                leastBusy = e.getKey();
+    /*
+     * Once an interval: returns the instances whose ejection is over, and ejects the success rate and latency outliers.
+     */
+    private void evaluate(long now) {
+        if (now < nextEvaluation)
+            return;
+        nextEvaluation = now + outliers.interval().toNanos();
+
+        var size = downstream.size();
+        for (int i = 0; i < size; i++) {
+            if (ejected[i] && ejectedUntil[i] <= now) {
+                ejected[i] = false;
+                ejectedCount--;
+                if (!draining[i])
+                    available.add(i);
             }
         }
-        return leastBusy;
+
+        // means over the instances with enough responses
+        int counted = 0;
+        double rateSum = 0, rateSquares = 0, timeSum = 0;
+        for (int i = 0; i < size; i++) {
+            var total = successes[i] + failures[i];
+            if (!isAvailable(i) || total < outliers.minRequests())
+                continue;
+            var rate = (double) successes[i] / total;
+            counted++;
+            rateSum += rate;
+            rateSquares += rate * rate;
+            if (successes[i] > 0)
+                timeSum += (double) serviceTime[i] / successes[i];
+        }
+        if (counted > 1) {
+            var mean = rateSum / counted;
+            var stdev = Math.sqrt(Math.max(0, rateSquares / counted - mean * mean));
+            var meanTime = timeSum / counted;
+            for (int i = 0; i < size; i++) {
+                var total = successes[i] + failures[i];
+                if (!isAvailable(i) || total < outliers.minRequests())
+                    continue;
+                var slow = outliers.latencyFactor() > 0 && successes[i] > 0
+                        && (double) serviceTime[i] / successes[i] > outliers.latencyFactor() * meanTime;
+                if ((double) successes[i] / total < mean - outliers.stdevFactor() * stdev || slow) {
+                    eject(i, now);
+                }
+            }
+        }
+
+        Arrays.fill(successes, 0);
+        Arrays.fill(failures, 0);
+        Arrays.fill(serviceTime, 0);
+    }
+
+    private int getLeastBusy() {
+        return active.leastBusy();
     }
 
-    private ActorRef getRoundRobin() {
+    // the least busy of the instances that aren't ejected or draining; there's always one
+    private int getLeastBusyHealthy() {
+        for (int position = 0; ; position++) {
+            var instance = active.nth(position);
+            if (isAvailable(instance))
+                return instance;
+        }
+    }
+
+    private int getRoundRobin() {
         counter = (counter + 1) % this.downstream.size();
-        return downstream.get(counter);
+        return counter;
+    }
+
+    private int getRoundRobinHealthy() {
+        while (true) {
+            var instance = getRoundRobin();
+            if (isAvailable(instance))
+                return instance;
+        }
+    }
+
+    /*
+     * Picks two distinct random instances of the available ones and sends to the less busy one (what Envoy's LEAST_REQUEST
+     * does by default).
+     */
+    private int getPowerOfTwoChoices() {
+        var size = this.available.size();
+        if (size == 1)
+            return available.get(0);
+        var first = rnd.nextInt(size);
+        var second = rnd.nextInt(size - 1);
+        if (second >= first)
+            second++;
+        first = available.get(first);
+        second = available.get(second);
+        return active.count(second) < active.count(first) ? second : first;
     }
 
     private void handleRequest(Request r) {
+        if (this.breaker != null && this.activeTotal >= this.breaker.maxRequests()) {
+            // overflow: the caller gets the response right away, without the request entering the group
+            this.overflows++;
+            var resp = new Response();
+            resp.request = r;
+            resp.status = Response.Status.Discarded;
+            outbox.tell(r.last(), resp);
+            return;
+        }
 
         var next = switch (this.balancing) {
             case Balancing.LeastBusyEnvoy -> getLeastBusy();
             case Balancing.RoundRobinEnvoy -> getRoundRobin();
-            case Balancing.ClusterIP -> getClusterIP();
+            case Balancing.ClusterIP -> getClusterIP(r);
+            case Balancing.PowerOfTwoChoices -> getPowerOfTwoChoices();
             default -> throw new RuntimeException("Unknown balancing");
         };
-        var active = this.active.get(next);
-        if (active == null) {
-            throw new RuntimeException("Didn't find downstream activity stats");
+        if (!isAvailable(next)) {
+            next = this.balancing == Balancing.LeastBusyEnvoy ? getLeastBusyHealthy() : getRoundRobinHealthy();
         }
-        this.active.put(next, active + 1);
+        this.active.increment(next);
+        this.activeTotal++;
 
-        r.returnPath.add(this.getSelf());
-        next.tell(r, getSelf());
+        r.enter(this.getSelf());
+        outbox.tell(downstream.get(next), r);
     }
 
-    private ActorRef getClusterIP() {
-        return connections.get(getSender());
+    private int getClusterIP(Request r) {
+        var instances = connections.get(getSender());
+        if (instances == null || r.connection >= instances.length) {
+            throw new RuntimeException("Didn't find downstream activity stats");
+        }
+        return instances[r.connection];
     }
 }
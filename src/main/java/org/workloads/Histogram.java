@@ -0,0 +1,82 @@
+package org.workloads;
+
+import java.util.Arrays;
+
+/*
+ * Log-bucketed histogram of non-negative long values (HdrHistogram layout with 2 significant digits).
+ * Values below 128 are counted exactly; above that, every power of two is split into 64 linear sub-buckets,
+ * so the relative error stays under 1.6%. Memory is fixed, and recording doesn't allocate or lock;
+ * an instance belongs to a single actor.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int SIZE = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+    private final long[] counts = new long[SIZE];
+    private long total;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[index(value)]++;
+        total++;
+        if (value > max)
+            max = value;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /*
+     * Highest value equivalent to the one at the percentile (0..100); 0 when empty.
+     */
+    public long percentile(double percentile) {
+        if (total == 0)
+            return 0;
+        var target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(highestEquivalent(i), max);
+        }
+        return max;
+    }
+
+    public void add(Histogram other) {
+        for (int i = 0; i < SIZE; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        max = 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        var shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        var shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -1,8 +1,6 @@
 package org.workloads;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.LinkedList;
 
 import static java.lang.Math.floor;
 
@@ -13,38 +11,104 @@ public abstract class Limiter {
         Discard,
     }
 
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
     private Reaction reaction;
-    private LinkedList<Request> waiting = new LinkedList<>();
-    protected int inFlight;
+    private AdmissionQueue queue = new AdmissionQueue.Fifo(DEFAULT_QUEUE_CAPACITY);
+    protected int inFlight; // started and not finished yet; the queued requests wait for it to go below the limit
+    private long expired;
 
     protected abstract boolean canStart();
 
-    public abstract void tick(LocalDateTime now);
+    public abstract void tick(long now);
+
+    /*
+     * Current concurrency limit; -1 when unlimited.
+     */
+    public abstract int limit();
 
     public Limiter(Reaction reaction) {
         this.reaction = reaction;
     }
 
-    public Request poll() {
+    public void setQueue(AdmissionQueue queue) {
+        this.queue = queue;
+    }
+
+    public AdmissionQueue queue() {
+        return queue;
+    }
+
+    /*
+     * Next request to start, if the limit allows; the queue may shed some meanwhile (see pollShed).
+     */
+    public Request poll(long now) {
         if (!canStart())
             return null;
-        return waiting.poll();
+        var r = queue.poll(now);
+        // the callers of the expired ones have given up already; they are shed too
+        while (r != null && r.expired(now)) {
+            this.expired++;
+            queue.shed(r);
+            r = queue.poll(now);
+        }
+        if (r != null) {
+            this.inFlight++;
+        }
+        return r;
+    }
+
+    /*
+     * Next request the queue has shed, which the service has to respond to; null when there's none.
+     */
+    public Request pollShed() {
+        return queue.pollShed();
     }
 
-    public boolean push(Request request) {
+    /*
+     * Number of requests dropped because their deadline passed before they started: rejected, or shed from the queue.
+     */
+    public long expired() {
+        return expired;
+    }
+
+    public int waiting() {
+        return queue.size();
+    }
+
+    /*
+     * false when the request is rejected: past its deadline, over the limit with Reaction.Discard, or the queue is full.
+     */
+    public boolean push(Request request, long now) {
+        if (request.expired(now)) {
+            this.expired++;
+            return false;
+        }
         if (reaction == Reaction.Wait || canStart()) {
-            this.waiting.push(request);
-            this.inFlight++;
-            return true;
+            return this.queue.offer(request, now);
         }
 
         return false;
     }
 
-    public void hasResult(Response response) {
+    public void hasResult(Response response, long now) {
         this.inFlight--;
     }
 
+    /*
+     * A started request was dropped because its deadline passed; there's no result for the limit to learn from.
+     */
+    public void hasExpired(Request request, long now) {
+        this.inFlight--;
+    }
+
+    /*
+     * Next moment the limiter wants to be ticked; Long.MAX_VALUE if it doesn't care.
+     */
+    public long nextCheck() {
+        return Long.MAX_VALUE;
+    }
+
     public static class StaticLimiter extends Limiter {
         private int limit;
 
@@ -54,7 +118,12 @@ public abstract class Limiter {
         }
 
         @Override
-        public void tick(LocalDateTime now) {}
+        public void tick(long now) {}
+
+        @Override
+        public int limit() {
+            return limit;
+        }
 
         @Override
         protected boolean canStart() {
@@ -68,7 +137,12 @@ public abstract class Limiter {
         }
 
         @Override
-        public void tick(LocalDateTime now) {}
+        public void tick(long now) {}
+
+        @Override
+        public int limit() {
+            return -1;
+        }
 
         @Override
         protected boolean canStart() {
@@ -80,8 +154,8 @@ public abstract class Limiter {
         protected int currentLimit;
         protected int topLimit;
         protected boolean reachedTop;
-        protected LocalDateTime nextCheck;
-        protected Duration checkFrequency = Duration.ofSeconds(1);
+        protected long nextCheck = Long.MIN_VALUE;
+        protected long checkFrequency = Duration.ofSeconds(1).toNanos();
 
         public AIMDLimiter(Reaction reaction, int topLimit) {
             super(reaction);
@@ -89,16 +163,29 @@ public abstract class Limiter {
             this.currentLimit = topLimit / 2;
             if (currentLimit < 1)
                 currentLimit = 1;
-            this.nextCheck = LocalDateTime.now().plus(checkFrequency);
         }
 
         protected abstract int moveLimit();
 
         @Override
-        public void tick(LocalDateTime now) {
-            if (now.isBefore(nextCheck))
+        public int limit() {
+            return currentLimit;
+        }
+
+        @Override
+        public long nextCheck() {
+            return nextCheck == Long.MIN_VALUE ? Long.MAX_VALUE : nextCheck;
+        }
+
+        @Override
+        public void tick(long now) {
+            if (nextCheck == Long.MIN_VALUE) {
+                nextCheck = now + checkFrequency;
+                return;
+            }
+            if (now < nextCheck)
                 return;
-            nextCheck = now.plus(checkFrequency);
+            nextCheck = now + checkFrequency;
 
             var move = moveLimit();
             reachedTop = false;
@@ -149,11 +236,11 @@ public abstract class Limiter {
         }
 
         @Override
-        public void hasResult(Response response) {
+        public void hasResult(Response response, long now) {
             if (response.status != Response.Status.Ok) {
                 thisSecondErrors++;
             }
-            super.hasResult(response);
+            super.hasResult(response, now);
         }
     }
 
@@ -161,13 +248,13 @@ public abstract class Limiter {
         private int thisSecondResponses;
         private long thisSecondLatencyNanos;
 
-        private Duration decreaseTrigger;
-        private Duration increaseTrigger;
+        private long decreaseTrigger;
+        private long increaseTrigger;
 
         public LimiterByLatency(Reaction reaction, int topLimit, Duration decreaseTrigger, Duration increaseTrigger) {
             super(reaction, topLimit);
-            this.decreaseTrigger = decreaseTrigger;
-            this.increaseTrigger = increaseTrigger;
+            this.decreaseTrigger = decreaseTrigger.toNanos();
+            this.increaseTrigger = increaseTrigger.toNanos();
 
             if (increaseTrigger.compareTo(decreaseTrigger) > 0) {
                 throw new RuntimeException("Decrease trigger cannot be larger than increase trigger.");
@@ -183,22 +270,179 @@ public abstract class Limiter {
             thisSecondResponses = 0;
             thisSecondLatencyNanos = 0;
 
-            if (avgLatency > decreaseTrigger.toNanos()) {
+            if (avgLatency > decreaseTrigger) {
                 return -1;
             }
-            if (reachedTop && avgLatency < increaseTrigger.toNanos()) {
+            if (reachedTop && avgLatency < increaseTrigger) {
                 return 1;
             }
             return  0;
         }
 
         @Override
-        public void hasResult(Response response) {
+        public void hasResult(Response response, long now) {
             if (response.status != Response.Status.Discarded) {
                 thisSecondResponses++;
-                thisSecondLatencyNanos += Duration.between(response.request.created, LocalDateTime.now()).toNanos();
+                thisSecondLatencyNanos += now - response.request.created;
+            }
+            super.hasResult(response, now);
+        }
+    }
+
+    /*
+     * Round trip times of the last requests, kept in a preallocated ring, and the percentile of them. The ring's slots are
+     * split between two indexed heaps (see SlotHeap): lower holds the rank + 1 smallest samples, its top being the percentile,
+     * and upper the rest; a sample replacing the oldest one moves a few slots between them, in O(log capacity).
+     */
+    static class RttWindow {
+        private final long[] samples;
+        private final int rank;
+        private final SlotHeap lower;
+        private final SlotHeap upper;
+        private int next;
+        private int size;
+
+        /*
+         * percentile - 0..100, as in Histogram.
+         */
+        RttWindow(int capacity, double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new RuntimeException("Percentile " + percentile + " isn't within 0..100");
+            }
+            samples = new long[capacity];
+            rank = (int) Math.min(capacity - 1, Math.floor(percentile / 100 * capacity));
+            lower = new SlotHeap(capacity, (a, b) -> samples[a] > samples[b]);
+            upper = new SlotHeap(capacity, (a, b) -> samples[a] < samples[b]);
+        }
+
+        void add(long rtt) {
+            var slot = next;
+            if (size == samples.length) {
+                // out with the oldest sample before its slot is reordered
+                lower.remove(slot);
+                upper.remove(slot);
+            } else {
+                size++;
             }
-            super.hasResult(response);
+            samples[slot] = rtt;
+            next = (next + 1) % samples.length;
+
+            // through lower, so that it keeps the smallest samples
+            lower.add(slot);
+            upper.add(lower.poll());
+            while (lower.size() <= rank && !upper.isEmpty()) {
+                lower.add(upper.poll());
+            }
+        }
+
+        boolean isFull() {
+            return size == samples.length;
+        }
+
+        // the percentile of the samples; the window has to be full
+        long percentile() {
+            return samples[lower.peek()];
+        }
+    }
+
+    /*
+     * Limiters that move the limit on every result, comparing the sampled round trip time (a percentile of the window
+     * of last results, measured from the start past the limiter) with the minimal one seen, which is the time without queueing.
+     * The minimum is re-learned every minRttPeriod, as the service itself may get slower.
+     */
+    public abstract static class RttLimiter extends Limiter {
+        protected double currentLimit;
+        protected int topLimit;
+        protected long minRtt = Long.MAX_VALUE;
+        private long minRttReset = Long.MIN_VALUE;
+        private long minRttPeriod = Duration.ofSeconds(10).toNanos();
+        private RttWindow window;
+
+        public RttLimiter(Reaction reaction, int topLimit, int window, double percentile) {
+            super(reaction);
+            this.topLimit = topLimit;
+            this.currentLimit = Math.max(1, topLimit / 2);
+            this.window = new RttWindow(window, percentile);
+        }
+
+        /*
+         * New limit, given the current one and the round trip times.
+         */
+        protected abstract double moveLimit(double limit, long minRtt, long sampledRtt);
+
+        @Override
+        public int limit() {
+            return (int) currentLimit;
+        }
+
+        @Override
+        public void tick(long now) {}
+
+        @Override
+        protected boolean canStart() {
+            return inFlight < (int) currentLimit;
+        }
+
+        @Override
+        public void hasResult(Response response, long now) {
+            super.hasResult(response, now);
+            var rtt = now - response.request.started;
+            window.add(rtt);
+            if (now >= minRttReset) {
+                minRtt = Long.MAX_VALUE;
+                minRttReset = now + minRttPeriod;
+            }
+            minRtt = Math.min(minRtt, rtt);
+            if (!window.isFull())
+                return;
+
+            var limit = moveLimit(currentLimit, Math.max(minRtt, 1), Math.max(window.percentile(), 1));
+            // don't grow the limit the service doesn't use
+            if (limit > currentLimit && inFlight < currentLimit / 2)
+                return;
+            currentLimit = Math.max(1, Math.min(topLimit, limit));
+        }
+    }
+
+    /*
+     * Gradient: the limit is scaled by minRtt / sampledRtt (with the tolerance for latency growth, and at most halved at once),
+     * plus a headroom of sqrt(limit) for the queue; the change is smoothed.
+     */
+    public static class GradientLimiter extends RttLimiter {
+        private static final double TOLERANCE = 1.5;
+        private static final double SMOOTHING = 0.2;
+
+        public GradientLimiter(Reaction reaction, int topLimit, int window, double percentile) {
+            super(reaction, topLimit, window, percentile);
+        }
+
+        @Override
+        protected double moveLimit(double limit, long minRtt, long sampledRtt) {
+            var gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / sampledRtt));
+            var target = limit * gradient + Math.sqrt(limit);
+            return (1 - SMOOTHING) * limit + SMOOTHING * target;
+        }
+    }
+
+    /*
+     * Vegas: estimates the number of queued requests as limit * (1 - minRtt / sampledRtt); grows the limit while
+     * the queue is shorter than alpha and shrinks it once it's longer than beta (both grow with log10 of the limit).
+     */
+    public static class VegasLimiter extends RttLimiter {
+
+        public VegasLimiter(Reaction reaction, int topLimit, int window, double percentile) {
+            super(reaction, topLimit, window, percentile);
+        }
+
+        @Override
+        protected double moveLimit(double limit, long minRtt, long sampledRtt) {
+            var queue = limit * (1 - (double) minRtt / sampledRtt);
+            var log = Math.max(1, Math.log10(limit));
+            if (queue < 3 * log)
+                return limit + log;
+            if (queue > 6 * log)
+                return limit - log;
+            return limit;
         }
     }
 }
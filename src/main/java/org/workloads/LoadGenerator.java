@@ -0,0 +1,29 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.Props;
+
+import java.time.Duration;
+
+/*
+ * The clients: a single actor standing for any number of logical clients, which send the Driver's requests downstream
+ * (with the load's timeouts and retries). A logical client is only an index, Request.connection; the Group keeps
+ * the ClusterIP connection of every one of them, so there's no per-client actor, mailbox or tick.
+ */
+public class LoadGenerator extends Service {
+    public static Props props(ActorRef downstream, int clients, Retries retries, Clock clock, boolean batching) {
+        return Props.create(LoadGenerator.class, () -> new LoadGenerator(downstream, clients, retries, clock, batching));
+    }
+
+    public LoadGenerator(ActorRef downstream, int clients, Retries retries, Clock clock, boolean batching) {
+        super(downstream, clients, 1, new Limiter.Unlimited(), Duration.ZERO, null, retries, clock, null, batching);
+    }
+
+    // every attempt goes over the connection of the client that sent the request
+    @Override
+    protected Request goDownstream(Request request, int attempt, long deadline) {
+        var r = request.goDownstream(attempt, deadline);
+        r.connection = request.connection;
+        return r;
+    }
+}
@@ -0,0 +1,132 @@
+package org.workloads;
+
+import java.util.Arrays;
+
+/*
+ * Open-addressing hash map from primitive long keys to primitive int values (e.g. slots of a SlotTable), with linear probing
+ * and backward-shift deletion, so lookups neither box nor allocate. Key 0 marks an empty slot and cannot be stored;
+ * get and remove return -1 for a missing key, so -1 cannot be stored either.
+ */
+public class LongIntMap {
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+    private int shift;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int capacity) {
+        var c = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+        keys = new long[c];
+        values = new int[c];
+        mask = c - 1;
+        shift = Long.numberOfLeadingZeros(mask);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(long key) {
+        var i = find(key);
+        return i < 0 ? -1 : values[i];
+    }
+
+    public int put(long key, int value) {
+        if (key == 0) {
+            throw new RuntimeException("Key 0 is reserved for empty slots");
+        }
+        var i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                var old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return -1;
+    }
+
+    public int remove(long key) {
+        var i = find(key);
+        if (i < 0)
+            return -1;
+        var old = values[i];
+        size--;
+
+        // shift back the following entries of the cluster that would become unreachable through the gap
+        var gap = i;
+        var j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == 0)
+                break;
+            var home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    public long bytes() {
+        return (long) keys.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    private int find(long key) {
+        if (key == 0)
+            return -1;
+        var i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing spreads sequential ids over the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        shift = Long.numberOfLeadingZeros(mask);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            var j = slot(oldKeys[i]);
+            while (keys[j] != 0) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
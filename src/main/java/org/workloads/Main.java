@@ -1,46 +1,52 @@
 package org.workloads;
 
-import org.apache.pekko.actor.*;
-
-import java.time.Duration;
+import java.io.File;
 import java.util.ArrayList;
 
-import static java.lang.Thread.sleep;
-
 public class Main {
     public static void main(String[] args) throws InterruptedException {
 
-        ActorSystem as = ActorSystem.create();
-
-        var allActors = new ArrayList<ActorRef>();
-        var bottom = new ArrayList<ActorRef>();
-        for (int i = 0; i < 99; i++) {
-            bottom.add(as.actorOf(Service.props(null, 100, new Limiter.LimiterByErrors(Limiter.Reaction.Discard, 200), Duration.ofMillis(100), null), "bottom_"+i));
+        // --virtual runs the scenarios on the simulation's virtual clock instead of waiting for the wall clock
+        // the rest of the arguments are scenario files, run one after another; without them, the default scenario runs
+        // --sweep <file> runs the parameter sweep described in the file instead
+        // --compare-dispatchers runs the scenarios on the wall clock once per dispatcher configuration (see DispatcherComparison)
+        var virtual = false;
+        var compareDispatchers = false;
+        String sweep = null;
+        var files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            var arg = args[i];
+            if (arg.equals("--virtual")) {
+                virtual = true;
+            } else if (arg.equals("--compare-dispatchers")) {
+                compareDispatchers = true;
+            } else if (arg.equals("--sweep") && i + 1 < args.length) {
+                sweep = args[++i];
+            } else if (arg.startsWith("--")) {
+                throw new RuntimeException("Unknown argument " + arg);
+            } else {
+                files.add(arg);
+            }
         }
-        bottom.add(as.actorOf(Service.props(null, 100, new Limiter.LimiterByErrors(Limiter.Reaction.Discard, 200), Duration.ofMillis(100), new Errors.OnceInAwhile(Duration.ofSeconds(2))), "bottom_bad"));
-        allActors.addAll(bottom);
 
-        var bottomEnvoy = as.actorOf(Group.props(bottom, Group.Balancing.LeastBusyEnvoy), "bottom_envoy");
-        allActors.add(bottomEnvoy);
-
-        var top = new ArrayList<ActorRef>();
-        for (int i = 0; i < 100; i++) {
-            top.add(as.actorOf(Service.props(bottomEnvoy, 100, new Limiter.LimiterByErrors(Limiter.Reaction.Discard, 200), Duration.ofMillis(100), null), "top_"+i));
+        if (sweep != null) {
+            Sweep.load(new File(sweep)).run();
+            return;
         }
-        allActors.addAll(top);
-        var topEnvoy = as.actorOf(Group.props(top, Group.Balancing.LeastBusyEnvoy), "top_envoy");
-        allActors.add(topEnvoy);
 
-        var clients = new ArrayList<ActorRef>();
-        for (int i = 0; i < 10000; i++) {
-            clients.add(as.actorOf(Client.props(topEnvoy), "client_" + i));
+        if (compareDispatchers) {
+            if (files.isEmpty()) {
+                new DispatcherComparison(Scenario.parse(null)).run();
+            }
+            for (var f : files) {
+                new DispatcherComparison(Scenario.parse(new File(f))).run();
+            }
+            return;
         }
-        allActors.addAll(clients);
-
-        var driver = as.actorOf(Driver.props(clients, 10, allActors), "driver");
-        driver.tell(new Driver.Start(), ActorRef.noSender());
-        sleep(300000);
 
-        as.terminate();
+        for (var scenario : Scenario.loadAll(files)) {
+            System.out.println(String.format("Scenario %s (%s).", scenario.name, scenario.duration));
+            scenario.run(virtual, true);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,211 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.TimerScheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Time series of the actors' state, written to a CSV file with the columns time_us,actor,metric,value.
+ *
+ * Actors register their series once, then periodically record samples into a preallocated ring buffer
+ * (claimed with a CAS, so recording never blocks or allocates; samples are dropped and counted when the buffer is full).
+ * A background thread drains the buffer into the file through a buffered NIO channel.
+ */
+public class Metrics implements AutoCloseable {
+
+    public static class Sample {}
+
+    private final Clock clock;
+    private final long origin;
+    private final Duration period;
+
+    private final int mask;
+    private final long[] times;
+    private final int[] series;
+    private final long[] values;
+    private final AtomicLongArray published; // sequence + 1 of the sample stored in the slot
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final CopyOnWriteArrayList<byte[]> names = new CopyOnWriteArrayList<>();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /*
+     * file - CSV file; overwritten.
+     * period - how often the actors sample their state.
+     * capacity - number of samples the ring buffer holds (rounded up to a power of two).
+     */
+    public Metrics(Path file, Duration period, int capacity, Clock clock) {
+        this.clock = clock;
+        this.origin = clock.now();
+        this.period = period;
+
+        var c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = c - 1;
+        this.times = new long[c];
+        this.series = new int[c];
+        this.values = new long[c];
+        this.published = new AtomicLongArray(c);
+
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.put("time_us,actor,metric,value\n".getBytes(StandardCharsets.US_ASCII));
+
+        this.writer = new Thread(this::write, "metrics-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public Duration period() {
+        return period;
+    }
+
+    /*
+     * Starts periodic Sample messages to the actor: actor timers with the wall clock, scheduled events with the virtual one.
+     */
+    public void startSampling(ActorRef actor, TimerScheduler timers) {
+        if (clock.isVirtual()) {
+            clock.schedule(period.toNanos(), actor, new Sample());
+        } else {
+            timers.startTimerAtFixedRate("metrics", new Sample(), period);
+        }
+    }
+
+    /*
+     * Called by the actor after every Sample.
+     */
+    public void sampled(ActorRef actor) {
+        if (clock.isVirtual()) {
+            clock.schedule(period.toNanos(), actor, new Sample());
+        }
+    }
+
+    public int register(String actor, String metric) {
+        synchronized (names) {
+            names.add((actor + "," + metric + ",").getBytes(StandardCharsets.US_ASCII));
+            return names.size() - 1;
+        }
+    }
+
+    public void record(int series, long value) {
+        var now = clock.now();
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed > mask) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        var slot = (int) seq & mask;
+        this.times[slot] = now - origin;
+        this.series[slot] = series;
+        this.values[slot] = value;
+        published.lazySet(slot, seq + 1);
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (dropped.get() > 0) {
+            System.out.println(String.format("Metrics: dropped %d samples; increase the buffer capacity.", dropped.get()));
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                var any = false;
+                while (true) {
+                    var seq = consumed;
+                    var slot = (int) seq & mask;
+                    if (published.get(slot) != seq + 1)
+                        break;
+                    writeRow(times[slot], series[slot], values[slot]);
+                    consumed = seq + 1;
+                    any = true;
+                }
+                if (!any) {
+                    if (closed && claimed.get() == consumed)
+                        break;
+                    flush();
+                    LockSupport.parkNanos(1000000);
+                }
+            }
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeRow(long time, int series, long value) throws IOException {
+        var name = names.get(series);
+        if (buffer.remaining() < name.length + 48) {
+            flush();
+        }
+        putLong(time / 1000);
+        buffer.put((byte) ',');
+        buffer.put(name);
+        putLong(value);
+        buffer.put((byte) '\n');
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        var start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // digits were written least significant first
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            var b = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, b);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
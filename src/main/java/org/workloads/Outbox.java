@@ -0,0 +1,55 @@
+package org.workloads;
+
+import org.apache.pekko.actor.ActorRef;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Requests and responses an actor sends while handling one message, coalesced per destination: flush() sends every destination
+ * a single Batch of its messages, in the order they were sent (or the message itself when there's only one).
+ * A Batch has a single sender, so the receiver handles its messages one after another exactly as if they arrived separately,
+ * but pays for one enqueue and one dispatch. Without batching, tell() sends right away.
+ */
+public class Outbox {
+
+    public record Batch(Object[] messages) {}
+
+    private final ActorRef self;
+    private final boolean batching;
+    // buffers are kept between turns; destinations lists the ones with pending messages
+    private final HashMap<ActorRef, ArrayList<Object>> pending = new HashMap<>();
+    private final ArrayList<ActorRef> destinations = new ArrayList<>();
+
+    public Outbox(ActorRef self, boolean batching) {
+        this.self = self;
+        this.batching = batching;
+    }
+
+    public void tell(ActorRef to, Object message) {
+        if (!batching) {
+            to.tell(message, self);
+            return;
+        }
+        var messages = pending.computeIfAbsent(to, k -> new ArrayList<>());
+        if (messages.isEmpty()) {
+            destinations.add(to);
+        }
+        messages.add(message);
+    }
+
+    /*
+     * Called at the end of every turn that may have sent something.
+     */
+    public void flush() {
+        if (destinations.isEmpty())
+            return;
+        for (int i = 0; i < destinations.size(); i++) {
+            var to = destinations.get(i);
+            var messages = pending.get(to);
+            to.tell(messages.size() == 1 ? messages.get(0) : new Batch(messages.toArray()), self);
+            messages.clear();
+        }
+        destinations.clear();
+    }
+}
@@ -0,0 +1,143 @@
+package org.workloads;
+
+import java.time.Duration;
+
+/*
+ * How the offered load changes over the run: the rate of requests per millisecond at a time since the start.
+ */
+public abstract class Profile {
+
+    public abstract double rate(long sinceStart);
+
+    /*
+     * Upper bound of the rate over the whole run.
+     */
+    public abstract double maxRate();
+
+    /*
+     * Time since the start after which the rate doesn't change any more; Long.MAX_VALUE if it keeps changing.
+     */
+    public abstract long settlesAt();
+
+    public static class Flat extends Profile {
+        private final double ratePerMs;
+
+        public Flat(double ratePerMs) {
+            this.ratePerMs = ratePerMs;
+        }
+
+        @Override
+        public double rate(long sinceStart) {
+            return ratePerMs;
+        }
+
+        @Override
+        public double maxRate() {
+            return ratePerMs;
+        }
+
+        @Override
+        public long settlesAt() {
+            return 0;
+        }
+    }
+
+    /*
+     * ratePerMs until at, then a linear change to toRatePerMs over the given time, which stays till the end.
+     */
+    public static class Ramp extends Profile {
+        private final double from;
+        private final double to;
+        private final long at;
+        private final long over;
+
+        public Ramp(double ratePerMs, double toRatePerMs, Duration at, Duration over) {
+            this.from = ratePerMs;
+            this.to = toRatePerMs;
+            this.at = at.toNanos();
+            this.over = over.toNanos();
+        }
+
+        @Override
+        public double rate(long sinceStart) {
+            if (sinceStart <= at)
+                return from;
+            if (sinceStart >= at + over)
+                return to;
+            return from + (to - from) * (sinceStart - at) / over;
+        }
+
+        @Override
+        public double maxRate() {
+            return Math.max(from, to);
+        }
+
+        @Override
+        public long settlesAt() {
+            return at + over;
+        }
+    }
+
+    /*
+     * ratePerMs, except spikeRatePerMs for the given time from at (a step up and back down).
+     */
+    public static class Spike extends Profile {
+        private final double base;
+        private final double spike;
+        private final long at;
+        private final long length;
+
+        public Spike(double ratePerMs, double spikeRatePerMs, Duration at, Duration length) {
+            this.base = ratePerMs;
+            this.spike = spikeRatePerMs;
+            this.at = at.toNanos();
+            this.length = length.toNanos();
+        }
+
+        @Override
+        public double rate(long sinceStart) {
+            return sinceStart >= at && sinceStart < at + length ? spike : base;
+        }
+
+        @Override
+        public double maxRate() {
+            return Math.max(base, spike);
+        }
+
+        @Override
+        public long settlesAt() {
+            return at + length;
+        }
+    }
+
+    /*
+     * ratePerMs plus a sine wave of the given amplitude (requests per millisecond) and period, e.g. a day compressed
+     * into a few minutes; never below zero.
+     */
+    public static class Sine extends Profile {
+        private final double mean;
+        private final double amplitude;
+        private final long period;
+
+        public Sine(double ratePerMs, double amplitude, Duration period) {
+            this.mean = ratePerMs;
+            this.amplitude = amplitude;
+            this.period = period.toNanos();
+        }
+
+        @Override
+        public double rate(long sinceStart) {
+            return Math.max(0, mean + amplitude * Math.sin(2 * Math.PI * (sinceStart % period) / period));
+        }
+
+        @Override
+        public double maxRate() {
+            return Math.max(0, mean + Math.abs(amplitude));
+        }
+
+        @Override
+        public long settlesAt() {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -2,33 +2,78 @@ package org.workloads;
 
 import org.apache.pekko.actor.ActorRef;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
-
 public class Request {
-    public record RequestId(String id){}
+    public record RequestId(long id){}
+
+    /*
+     * Immutable stack of the actors the response travels back through; the top frame is the last actor entered.
+     * Attempts sent downstream share the frames of their parent, so going downstream doesn't copy anything.
+     */
+    public record ReturnPath(ActorRef actor, ReturnPath parent){}
 
-    public Request(int attempt) {
-        this(new RequestId(UUID.randomUUID().toString()), attempt,  LocalDateTime.now(), new ArrayList<>());
+    /*
+     * id - from Clock.nextRequestId.
+     */
+    public Request(long id, int attempt, long created) {
+        this(new RequestId(id), attempt, created, Long.MAX_VALUE, null);
     }
 
-    private Request(RequestId id, int attempt, LocalDateTime created, List<ActorRef> returnPath) {
+    private Request(RequestId id, int attempt, long created, long deadline, ReturnPath returnPath) {
         this.id = id;
         this.attempt = attempt;
         this.created = created;
+        this.deadline = deadline;
         this.returnPath = returnPath;
     }
 
     public Request goDownstream(int attempt) {
-        var returnPath = new ArrayList<ActorRef>();
-        returnPath.addAll(this.returnPath);
-        return new Request(this.id, attempt, this.created, returnPath);
+        return goDownstream(attempt, this.deadline);
+    }
+
+    public Request goDownstream(int attempt, long deadline) {
+        return new Request(this.id, attempt, this.created, deadline, this.returnPath);
+    }
+
+    /*
+     * Another call of the request sent in parallel (see Service.FanOut), or a hedged copy of an attempt: it has an id
+     * of its own, so it's tracked apart from its siblings, also by a downstream service that gets both; the rest,
+     * including the connection, is the request's. id - from Clock.nextRequestId.
+     */
+    public Request branch(long id) {
+        var r = new Request(new RequestId(id), this.attempt, this.created, this.deadline, this.returnPath);
+        r.started = this.started;
+        r.connection = this.connection;
+        return r;
+    }
+
+    public boolean expired(long now) {
+        return this.deadline <= now;
+    }
+
+    public void enter(ActorRef actor) {
+        this.returnPath = new ReturnPath(actor, this.returnPath);
+    }
+
+    /*
+     * Removes the actor (which has to be the last one entered) from the return path; returns the actor the response goes to next.
+     */
+    public ActorRef leave(ActorRef actor) {
+        if (this.returnPath == null || !this.returnPath.actor().equals(actor)) {
+            throw new RuntimeException("Routing error");
+        }
+        this.returnPath = this.returnPath.parent();
+        return this.returnPath.actor();
+    }
+
+    public ActorRef last() {
+        return this.returnPath.actor();
     }
 
     public final RequestId id;
-    public final LocalDateTime created;
+    public final long created; // Clock nanoseconds; the intended send time (see Arrivals)
     public final int attempt;
-    public List<ActorRef> returnPath;
+    public final long deadline; // Clock nanoseconds; when the caller gives up on it; Long.MAX_VALUE if the caller doesn't say
+    public ReturnPath returnPath;
+    public long started; // Clock nanoseconds; when the service handling it let it start (past its limiter)
+    public int connection; // which of the sender's connections to the Group it goes over (see Group.Connect); not inherited downstream
 }
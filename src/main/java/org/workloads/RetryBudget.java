@@ -0,0 +1,97 @@
+package org.workloads;
+
+import java.time.Duration;
+
+/*
+ * Retry budget: caps the retries relative to the requests that go well, so that an outage doesn't multiply the load on it
+ * by the retries of every tier above. A budget may be shared by all the services of a tier, which run on different threads
+ * with the wall clock, so it's synchronized.
+ */
+public abstract class RetryBudget {
+
+    /*
+     * A first attempt went downstream.
+     */
+    public void attempted(long now) {}
+
+    /*
+     * An attempt got an Ok response.
+     */
+    public void succeeded(long now) {}
+
+    /*
+     * Takes a retry out of the budget; false when it's used up and the retry is suppressed.
+     */
+    public abstract boolean retry(long now);
+
+    /*
+     * Token bucket (gRPC's retry throttling): every success adds fraction of a token, every retry takes a whole one.
+     * The bucket starts full.
+     */
+    public static class TokenBucket extends RetryBudget {
+        private final double fraction;
+        private final double capacity;
+        private double tokens;
+
+        public TokenBucket(double fraction, double capacity) {
+            this.fraction = fraction;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        @Override
+        public synchronized void succeeded(long now) {
+            tokens = Math.min(capacity, tokens + fraction);
+        }
+
+        @Override
+        public synchronized boolean retry(long now) {
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    /*
+     * Ratio cap (Finagle's retry budget): the retries of every second stay under ratio of that second's first attempts,
+     * plus minPerSecond so that low traffic still gets some.
+     */
+    public static class Ratio extends RetryBudget {
+        private static final long PERIOD = Duration.ofSeconds(1).toNanos();
+
+        private final double ratio;
+        private final int minPerSecond;
+        private long periodEnd = Long.MIN_VALUE;
+        private long attempts;
+        private long retries;
+
+        public Ratio(double ratio, int minPerSecond) {
+            this.ratio = ratio;
+            this.minPerSecond = minPerSecond;
+        }
+
+        @Override
+        public synchronized void attempted(long now) {
+            roll(now);
+            attempts++;
+        }
+
+        @Override
+        public synchronized boolean retry(long now) {
+            roll(now);
+            if (retries >= minPerSecond + ratio * attempts)
+                return false;
+            retries++;
+            return true;
+        }
+
+        private void roll(long now) {
+            if (now < periodEnd)
+                return;
+            periodEnd = now + PERIOD;
+            attempts = 0;
+            retries = 0;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.workloads;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.apache.pekko.actor.Props;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.lang.Thread.sleep;
+
+/*
+ * Scenario: topology, load and duration of a run, described in a HOCON (or JSON) file; see default-scenario.conf for the format.
+ * Values the file references as ${...} substitutions can be overridden before resolving (that's how Sweep varies them).
+ *
+ * Tiers are listed from the one the clients call down to the leaves; every tier is a Group balancing between its services,
+ * and every service calls the Group of the next tier, or the Groups of the tiers its tier's downstream list names (see Service.FanOut).
+ */
+public class Scenario {
+
+    private final Config config;
+    public final String name;
+    public final Duration duration;
+
+    /*
+     * config - unresolved scenario; it's resolved here.
+     */
+    public Scenario(Config config) {
+        this.config = config.resolve();
+        this.name = this.config.getString("name");
+        this.duration = this.config.getDuration("duration");
+    }
+
+    public static Scenario load(File file) {
+        return new Scenario(parse(file));
+    }
+
+    public static Scenario loadDefault() {
+        return new Scenario(parse(null));
+    }
+
+    /*
+     * Unresolved scenario file; the default scenario when file is null.
+     */
+    static Config parse(File file) {
+        return file == null ? ConfigFactory.parseResources("default-scenario.conf") : ConfigFactory.parseFile(file);
+    }
+
+    /*
+     * Builds the actor graph and runs it for the scenario's duration; on the simulation's virtual clock when virtual is set.
+     * verbose prints the Driver's per-second reports.
+     */
+    public Driver.Results run(boolean virtual, boolean verbose) throws InterruptedException {
+        var simulation = virtual ? new Simulation() : null;
+        Clock clock = virtual ? simulation : new Clock.Wall();
+        var m = config.hasPath("metrics") ? config.getConfig("metrics") : null;
+        var metrics = m == null ? null : new Metrics(Path.of(m.getString("file")), m.getDuration("period"), m.getInt("buffer"), clock);
+
+        ActorSystem as = virtual
+                ? simulation.system(name)
+                : ActorSystem.create(name);
+        // with the virtual clock every actor runs on the simulation
+        var driverDispatcher = virtual ? null : dispatcher("driver");
+        var groupDispatcher = virtual ? null : dispatcher("groups");
+        var serviceDispatcher = virtual ? null : dispatcher("services");
+
+        var batching = config.hasPath("batching") && config.getBoolean("batching");
+        var allActors = new ArrayList<ActorRef>();
+        var tiers = config.getConfigList("tiers");
+        // the tiers' groups by name; the downstream tiers are built first
+        var groups = new HashMap<String, ActorRef>();
+        ActorRef downstream = null;
+        for (int t = tiers.size() - 1; t >= 0; t--) {
+            var tier = tiers.get(t);
+            var tierName = tier.getString("name");
+            var downstreams = new ArrayList<ActorRef>();
+            if (tier.hasPath("downstream")) {
+                for (var d : tier.getStringList("downstream")) {
+                    if (!groups.containsKey(d))
+                        throw new RuntimeException("Unknown downstream tier " + d + " of " + tierName + " (it has to be listed after " + tierName + ")");
+                    downstreams.add(groups.get(d));
+                }
+            } else if (downstream != null) {
+                downstreams.add(downstream);
+            }
+            var services = new ArrayList<ActorRef>();
+            // shared by the tier's services that don't have their own
+            var tierBudget = tier.hasPath("retry-budget") ? retryBudget(tier.getConfig("retry-budget")) : null;
+            // autoscalers of the tier's services, started once the tier's Group is; the instances they add are numbered after the rest
+            var autoscalers = new ArrayList<Consumer<ActorRef>>();
+            var nextIndex = new AtomicInteger();
+            for (var s : tier.getConfigList("services")) {
+                var count = s.getInt("count");
+                var prefix = s.hasPath("name") ? tierName + "_" + s.getString("name") : tierName;
+                // every instance has a limiter (and retries) of its own
+                Supplier<Props> newService = () -> {
+                    var retries = s.hasPath("retries") ? retries(s.getConfig("retries")) : Service.Retries.DEFAULT;
+                    if (retries.budget() == null && tierBudget != null) {
+                        retries = retries.withBudget(tierBudget);
+                    }
+                    var fanOut = s.hasPath("fan-out") ? fanOut(s.getConfig("fan-out")) : Service.FanOut.NONE;
+                    var props = Service.props(downstreams, fanOut, s.getInt("concurrency"), limiter(s.getConfig("limiter")),
+                            s.getDuration("calc-duration"), s.hasPath("errors") ? errors(s.getConfig("errors")) : null,
+                            retries, clock, metrics, batching);
+                    return withDispatcher(props, serviceDispatcher);
+                };
+                var instances = new ArrayList<ActorRef>();
+                for (int i = 0; i < count; i++) {
+                    var serviceName = s.hasPath("name") && count == 1 ? prefix : prefix + "_" + services.size();
+                    var instance = as.actorOf(newService.get(), serviceName);
+                    instances.add(instance);
+                    services.add(instance);
+                }
+                if (s.hasPath("autoscaler")) {
+                    var policy = autoscaler(s.getConfig("autoscaler"), count);
+                    var concurrency = s.getInt("concurrency");
+                    autoscalers.add(group -> {
+                        var props = Autoscaler.props(group, instances, newService, () -> prefix + "_" + nextIndex.getAndIncrement(), policy,
+                                concurrency, clock, metrics);
+                        allActors.add(as.actorOf(withDispatcher(props, groupDispatcher), prefix + "_autoscaler"));
+                    });
+                }
+            }
+            nextIndex.set(services.size());
+            allActors.addAll(services);
+            var outliers = tier.hasPath("outlier-detection") ? outlierDetection(tier.getConfig("outlier-detection")) : null;
+            var breaker = tier.hasPath("circuit-breaker") ? new Group.CircuitBreaker(tier.getInt("circuit-breaker.max-requests")) : null;
+            var groupProps = Group.props(services, Group.Balancing.valueOf(tier.getString("balancing")), outliers, breaker, clock, metrics, batching);
+            downstream = as.actorOf(withDispatcher(groupProps, groupDispatcher), tierName + "_envoy");
+            groups.put(tierName, downstream);
+            allActors.add(downstream);
+            for (var autoscaler : autoscalers) {
+                autoscaler.accept(downstream);
+            }
+        }
+
+        var load = config.getConfig("load");
+        var clients = load.getInt("clients");
+        var loadRetries = load.hasPath("retries") ? retries(load.getConfig("retries")) : Service.Retries.DEFAULT;
+        var generator = as.actorOf(withDispatcher(LoadGenerator.props(downstream, clients, loadRetries, clock, batching), serviceDispatcher), "clients");
+        allActors.add(generator);
+
+        var results = new Driver.Results();
+        var driverProps = Driver.props(generator, clients, arrivals(load), allActors, clock, results, verbose, batching);
+        var driver = as.actorOf(withDispatcher(driverProps, driverDispatcher), "driver");
+        driver.tell(new Driver.Start(), ActorRef.noSender());
+
+        if (virtual) {
+            // the driver's first tick
+            simulation.awaitScheduled();
+            simulation.run(duration);
+            simulation.terminate(as);
+        } else {
+            sleep(duration.toMillis());
+            as.terminate();
+            as.getWhenTerminated().toCompletableFuture().join();
+        }
+
+        if (metrics != null)
+            metrics.close();
+        return results;
+    }
+
+    /*
+     * The dispatchers block: driver, groups and services (the load generator included) name dispatchers of application.conf
+     * (workloads.dispatchers); missing ones, or default, stay on pekko's default dispatcher. Returns the dispatcher's id, or null.
+     */
+    private String dispatcher(String actors) {
+        var path = "dispatchers." + actors;
+        if (!config.hasPath(path) || config.getString(path).equals("default"))
+            return null;
+        return "workloads.dispatchers." + config.getString(path);
+    }
+
+    private static Props withDispatcher(Props props, String dispatcher) {
+        return dispatcher == null ? props : props.withDispatcher(dispatcher);
+    }
+
+    /*
+     * rate-per-ms (may be fractional), the optional profile and the optional arrivals block:
+     * type - constant (default) or poisson, at the profile's rate;
+     *   bursty (burst-rate-per-ms, mean-calm, mean-burst), or trace (file, unit - ns, us (default) or ms), which take no profile.
+     */
+    static Arrivals arrivals(Config load) {
+        var type = load.hasPath("arrivals.type") ? load.getString("arrivals.type") : "constant";
+        if (load.hasPath("profile") && (type.equals("bursty") || type.equals("trace"))) {
+            throw new RuntimeException("Load profiles don't apply to " + type + " arrivals");
+        }
+        return switch (type) {
+            case "constant" -> new Arrivals.Constant(profile(load));
+            case "poisson" -> new Arrivals.Poisson(profile(load));
+            case "bursty" -> {
+                var a = load.getConfig("arrivals");
+                yield new Arrivals.Bursty(load.getDouble("rate-per-ms"), a.getDouble("burst-rate-per-ms"), a.getDuration("mean-calm"), a.getDuration("mean-burst"));
+            }
+            case "trace" -> {
+                var a = load.getConfig("arrivals");
+                var unit = a.hasPath("unit") ? a.getString("unit") : "us";
+                yield new Arrivals.Trace(Path.of(a.getString("file")), switch (unit) {
+                    case "ns" -> 1;
+                    case "us" -> 1000;
+                    case "ms" -> 1000000;
+                    default -> throw new RuntimeException("Unknown trace unit " + unit);
+                });
+            }
+            default -> throw new RuntimeException("Unknown arrivals type " + type);
+        };
+    }
+
+    /*
+     * rate-per-ms, changed by the optional profile block:
+     * type - flat (default), ramp (to-rate-per-ms, at, over), spike (spike-rate-per-ms, at, for) or sine (amplitude, period).
+     */
+    static Profile profile(Config load) {
+        var rate = load.getDouble("rate-per-ms");
+        var type = load.hasPath("profile.type") ? load.getString("profile.type") : "flat";
+        var p = load.hasPath("profile") ? load.getConfig("profile") : null;
+        return switch (type) {
+            case "flat" -> new Profile.Flat(rate);
+            case "ramp" -> new Profile.Ramp(rate, p.getDouble("to-rate-per-ms"), p.getDuration("at"), p.getDuration("over"));
+            case "spike" -> new Profile.Spike(rate, p.getDouble("spike-rate-per-ms"), p.getDuration("at"), p.getDuration("for"));
+            case "sine" -> new Profile.Sine(rate, p.getDouble("amplitude"), p.getDuration("period"));
+            default -> throw new RuntimeException("Unknown profile type " + type);
+        };
+    }
+
+    /*
+     * retries, timeout, min-backoff, max-backoff, propagate-deadline, hedge (percentile, budget), budget (see retryBudget());
+     * missing ones are taken from Service.Retries.DEFAULT. The budget is the service's own.
+     */
+    static Service.Retries retries(Config c) {
+        var d = Service.Retries.DEFAULT;
+        return new Service.Retries(
+                c.hasPath("retries") ? c.getInt("retries") : d.retries(),
+                c.hasPath("timeout") ? c.getDuration("timeout") : d.timeout(),
+                c.hasPath("min-backoff") ? c.getDuration("min-backoff") : d.minBackoff(),
+                c.hasPath("max-backoff") ? c.getDuration("max-backoff") : d.maxBackoff(),
+                c.hasPath("propagate-deadline") ? c.getBoolean("propagate-deadline") : d.propagateDeadline(),
+                c.hasPath("hedge") ? new Service.Hedging(c.getDouble("hedge.percentile"), c.getDouble("hedge.budget")) : d.hedging(),
+                c.hasPath("budget") ? retryBudget(c.getConfig("budget")) : d.budget());
+    }
+
+    /*
+     * width - calls to each downstream tier per request (default 1); completion - All (default), Quorum or First (first - how many).
+     */
+    static Service.FanOut fanOut(Config c) {
+        var completion = c.hasPath("completion") ? Service.Completion.valueOf(c.getString("completion")) : Service.Completion.All;
+        return new Service.FanOut(c.hasPath("width") ? c.getInt("width") : 1, completion,
+                completion == Service.Completion.First ? c.getInt("first") : 1);
+    }
+
+    /*
+     * metric - Utilisation (default) or InFlight; target; min - the service's count by default; max;
+     * interval (15s), start-delay (10s), cold-start (30s), cold-concurrency (0.5), scale-down-delay (300s).
+     */
+    static Autoscaler.Policy autoscaler(Config c, int count) {
+        return new Autoscaler.Policy(
+                c.hasPath("metric") ? Autoscaler.Metric.valueOf(c.getString("metric")) : Autoscaler.Metric.Utilisation,
+                c.getDouble("target"),
+                c.hasPath("min") ? c.getInt("min") : count,
+                c.getInt("max"),
+                c.hasPath("interval") ? c.getDuration("interval") : Duration.ofSeconds(15),
+                c.hasPath("start-delay") ? c.getDuration("start-delay") : Duration.ofSeconds(10),
+                c.hasPath("cold-start") ? c.getDuration("cold-start") : Duration.ofSeconds(30),
+                c.hasPath("cold-concurrency") ? c.getDouble("cold-concurrency") : 0.5,
+                c.hasPath("scale-down-delay") ? c.getDuration("scale-down-delay") : Duration.ofSeconds(300));
+    }
+
+    /*
+     * interval, consecutive-errors, base-ejection, max-ejection-percent, min-requests, stdev-factor, latency-factor;
+     * missing ones are taken from Group.OutlierDetection.DEFAULT.
+     */
+    static Group.OutlierDetection outlierDetection(Config c) {
+        var d = Group.OutlierDetection.DEFAULT;
+        return new Group.OutlierDetection(
+                c.hasPath("interval") ? c.getDuration("interval") : d.interval(),
+                c.hasPath("consecutive-errors") ? c.getInt("consecutive-errors") : d.consecutiveErrors(),
+                c.hasPath("base-ejection") ? c.getDuration("base-ejection") : d.baseEjection(),
+                c.hasPath("max-ejection-percent") ? c.getInt("max-ejection-percent") : d.maxEjectionPercent(),
+                c.hasPath("min-requests") ? c.getInt("min-requests") : d.minRequests(),
+                c.hasPath("stdev-factor") ? c.getDouble("stdev-factor") : d.stdevFactor(),
+                c.hasPath("latency-factor") ? c.getDouble("latency-factor") : d.latencyFactor());
+    }
+
+    /*
+     * type - token-bucket (fraction - tokens a success adds, capacity) or ratio (ratio, min-per-second).
+     */
+    static RetryBudget retryBudget(Config c) {
+        var type = c.getString("type");
+        return switch (type) {
+            case "token-bucket" -> new RetryBudget.TokenBucket(c.getDouble("fraction"), c.getDouble("capacity"));
+            case "ratio" -> new RetryBudget.Ratio(c.getDouble("ratio"), c.getInt("min-per-second"));
+            default -> throw new RuntimeException("Unknown retry budget type " + type);
+        };
+    }
+
+    /*
+     * type - unlimited, static (limit), errors (top-limit), latency (top-limit, decrease-trigger, increase-trigger),
+     *   gradient or vegas (top-limit, optional window - number of results sampled, and percentile (0..100) of their round trip times);
+     * reaction - Wait or Discard;
+     * queue - optional, see queue().
+     */
+    static Limiter limiter(Config c) {
+        var limiter = limiterOfType(c);
+        if (c.hasPath("queue")) {
+            limiter.setQueue(queue(c.getConfig("queue")));
+        }
+        return limiter;
+    }
+
+    private static Limiter limiterOfType(Config c) {
+        var type = c.getString("type");
+        if (type.equals("unlimited"))
+            return new Limiter.Unlimited();
+
+        var reaction = Limiter.Reaction.valueOf(c.getString("reaction"));
+        return switch (type) {
+            case "static" -> new Limiter.StaticLimiter(reaction, c.getInt("limit"));
+            case "errors" -> new Limiter.LimiterByErrors(reaction, c.getInt("top-limit"));
+            case "latency" -> new Limiter.LimiterByLatency(reaction, c.getInt("top-limit"), c.getDuration("decrease-trigger"), c.getDuration("increase-trigger"));
+            case "gradient" -> new Limiter.GradientLimiter(reaction, c.getInt("top-limit"),
+                    c.hasPath("window") ? c.getInt("window") : 100, c.hasPath("percentile") ? c.getDouble("percentile") : 90);
+            case "vegas" -> new Limiter.VegasLimiter(reaction, c.getInt("top-limit"),
+                    c.hasPath("window") ? c.getInt("window") : 100, c.hasPath("percentile") ? c.getDouble("percentile") : 90);
+            default -> throw new RuntimeException("Unknown limiter type " + type);
+        };
+    }
+
+    /*
+     * type - fifo (default), codel (target, interval) or adaptive-lifo (threshold); capacity - optional (1024); the requests
+     * arriving at a full queue are Discarded.
+     */
+    static AdmissionQueue queue(Config c) {
+        var type = c.hasPath("type") ? c.getString("type") : "fifo";
+        var capacity = c.hasPath("capacity") ? c.getInt("capacity") : Limiter.DEFAULT_QUEUE_CAPACITY;
+        return switch (type) {
+            case "fifo" -> new AdmissionQueue.Fifo(capacity);
+            case "codel" -> new AdmissionQueue.CoDel(capacity, c.getDuration("target"), c.getDuration("interval"));
+            case "adaptive-lifo" -> new AdmissionQueue.AdaptiveLifo(capacity, c.getDuration("threshold"));
+            default -> throw new RuntimeException("Unknown queue type " + type);
+        };
+    }
+
+    /*
+     * type - none, always, random (share) or once-in-awhile (period).
+     */
+    static Errors errors(Config c) {
+        var type = c.getString("type");
+        return switch (type) {
+            case "none" -> new Errors.None();
+            case "always" -> new Errors.Always();
+            case "random" -> new Errors.RandomPercentage(c.getDouble("share"));
+            case "once-in-awhile" -> new Errors.OnceInAwhile(c.getDuration("period"));
+            default -> throw new RuntimeException("Unknown errors type " + type);
+        };
+    }
+
+    public static List<Scenario> loadAll(List<String> files) {
+        var scenarios = new ArrayList<Scenario>();
+        for (var f : files) {
+            scenarios.add(load(new File(f)));
+        }
+        if (scenarios.isEmpty()) {
+            scenarios.add(loadDefault());
+        }
+        return scenarios;
+    }
+}
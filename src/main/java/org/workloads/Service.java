@@ -6,11 +6,9 @@ import org.apache.pekko.actor.ActorRef;
 import org.apache.pekko.actor.Props;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.*;
 
 import static java.lang.Math.floor;
-import static java.time.temporal.ChronoUnit.NANOS;
 
 /*
  * Service class sends a downstream request (unless it's the leaf); and then runs some computation (handles the results).
@@ -19,224 +17,959 @@ public class Service extends AbstractActorWithTimers {
 
     // if there was an error last second, decrease concurrency by 10%; if there were no errors and worked at max, increase by 1
 
-    private ActorRef downstream;
+    /*
+     * Downstream calls: timeout of every attempt, number of retries after the first attempt, and the exponential backoff between attempts.
+     * propagateDeadline - tell the downstream service when the attempt times out (or the request's own deadline passes, if sooner),
+     *   so that it drops the attempt instead of working on it after the caller gave up.
+     * hedging - speculative copies of slow attempts; may be null.
+     * budget - caps the retries; may be null, and may be shared by several services.
+     */
+    public record Retries(int retries, Duration timeout, Duration minBackoff, Duration maxBackoff, boolean propagateDeadline, Hedging hedging,
+                          RetryBudget budget) {
+        public static final Retries DEFAULT = new Retries(3, Duration.ofSeconds(1), Duration.ofMillis(100), Duration.ofMillis(1000), false, null, null);
+
+        public Retries withBudget(RetryBudget budget) {
+            return new Retries(retries, timeout, minBackoff, maxBackoff, propagateDeadline, hedging, budget);
+        }
+    }
+
+    /*
+     * An attempt still without a response once it's been waiting longer than the percentile (0..100) of the downstream latencies
+     * gets a second copy sent; the first successful response of the two is taken, the other one is ignored.
+     * budget - hedges allowed per attempt sent (e.g. 0.05 for at most 5% extra downstream load); 0 turns hedging off.
+     */
+    public record Hedging(double percentile, double budget) {}
+
+    /*
+     * Scatter-gather: every request calls each of the downstream services width times, all the calls sent at once, each of them
+     * with its own timeouts, retries and hedges. The request goes on to its calculation once enough calls succeeded:
+     * All of them, a Quorum (a majority), or the First ones of them (first - how many); it fails as soon as too many failed for that.
+     * The calls still in flight then are abandoned; the downstream services work on them all the same.
+     */
+    public record FanOut(int width, Completion completion, int first) {
+        public static final FanOut NONE = new FanOut(1, Completion.All, 1);
+
+        // calls that have to succeed out of all the calls of a request
+        public int needed(int calls) {
+            return switch (completion) {
+                case All -> calls;
+                case Quorum -> calls / 2 + 1;
+                case First -> Math.min(first, calls);
+            };
+        }
+    }
+
+    public enum Completion {
+        All, Quorum, First
+    }
+
+    /*
+     * Sent by the Autoscaler to a new instance before it joins the Group: until the time (Clock nanoseconds) the instance
+     * calculates at the reduced availableConcurrency, as its JIT, caches and connection pools warm up.
+     */
+    public record ColdStart(long until, int availableConcurrency) {}
+
+    private ActorRef[] downstreams;
+    private int calls; // downstream calls per request
+    private int needed; // calls that have to succeed
     private Duration calcDuration;
-    private Duration downstreamTimeout = Duration.ofSeconds(1);
+    private Duration downstreamTimeout;
     private Errors errors;
     private Limiter limiter;
+    private Clock clock;
+    private Metrics metrics;
+    private final boolean batching;
+    private Outbox outbox; // created in preStart, once the actor has its self
+    private int inFlightSeries, limiterInFlightSeries, limitSeries, queueSeries, sojournSeries, shedSeries;
+    private int expiredSeries, cpuSeries, savedWorkSeries;
+    private int hedgesSeries, hedgeWinsSeries, hedgeDelaySeries;
+    private int retriesSeries, suppressedSeries;
+    private int memorySeries, abandonedSeries;
 
     private int availableConcurrency;
+    private long coldUntil = Long.MAX_VALUE; // end of the cold start, if there's one going on
+    private int warmConcurrency;
+
+    private int downstreamRetries;
+    private Duration downstreamMinBackoff;
+    private Duration downstreamMaxBackoff;
+    private boolean propagateDeadline;
+    private RetryBudget retryBudget;
+    private long retried, suppressed; // retries sent, and retries the budget suppressed
+
+    private static final long HEDGE_PERIOD = Duration.ofSeconds(1).toNanos();
+    private static final int HEDGE_MIN_SAMPLES = 100;
+    private static final double HEDGE_MAX_TOKENS = 10;
+    private Hedging hedging;
+    private Histogram downstreamLatencies; // of the Ok responses in the current hedge period
+    private long hedgeDelay = Long.MAX_VALUE; // percentile of the latencies of the last period; MAX_VALUE until there are enough
+    private long nextHedgeUpdate;
+    private double hedgeTokens; // every attempt sent adds the budget, every hedge takes 1
+    private long hedges, hedgeWins;
+
+    private long created;
+    private long lastTick;
+    private long nextWakeUp = Long.MAX_VALUE; // earliest wake-up scheduled with the virtual clock
+
+    // initial rows of the in-flight tables; they double when full, and don't shrink
+    private static final int INITIAL_SLOTS = 16;
+
+    /*
+     * Calculations in progress, a row per request (see SlotTable). Every row is in the byFinish heap (see the work clock below);
+     * the rows of the requests with a deadline are in the byDeadline heap as well.
+     */
+    private static final class Calculations extends SlotTable {
+        Request[] request;
+        double[] finishWork; // value of the work clock at which the calculation is done
+        long[] sequence;
+        long[] deadline;
+        final SlotHeap byFinish;
+        final SlotHeap byDeadline;
+
+        Calculations(int capacity) {
+            super(capacity);
+            request = new Request[capacity()];
+            finishWork = new double[capacity()];
+            sequence = new long[capacity()];
+            deadline = new long[capacity()];
+            byFinish = new SlotHeap(capacity(), (a, b) -> finishWork[a] < finishWork[b] || (finishWork[a] == finishWork[b] && sequence[a] < sequence[b]));
+            byDeadline = new SlotHeap(capacity(), (a, b) -> deadline[a] < deadline[b] || (deadline[a] == deadline[b] && sequence[a] < sequence[b]));
+        }
+
+        void add(Request r, double finishWork, long sequence) {
+            var s = allocate();
+            this.request[s] = r;
+            this.finishWork[s] = finishWork;
+            this.sequence[s] = sequence;
+            this.deadline[s] = r.deadline;
+            byFinish.add(s);
+            if (r.deadline != Long.MAX_VALUE) {
+                byDeadline.add(s);
+            }
+        }
+
+        // the calculation completed or was cancelled
+        void remove(int s) {
+            byFinish.remove(s);
+            byDeadline.remove(s);
+            request[s] = null;
+            release(s);
+        }
+
+        @Override
+        protected void resize(int capacity) {
+            request = Arrays.copyOf(request, capacity);
+            finishWork = Arrays.copyOf(finishWork, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+            deadline = Arrays.copyOf(deadline, capacity);
+            byFinish.resize(capacity);
+            byDeadline.resize(capacity);
+        }
+
+        @Override
+        protected int bytesPerSlot() {
+            return REFERENCE_BYTES + Double.BYTES + Long.BYTES + Long.BYTES;
+        }
 
-    private int downstreamRetries = 3;
-    private Duration downstreamMinBackoff = Duration.ofMillis(100);
-    private Duration downstreamMaxBackoff = Duration.ofMillis(1000);
+        @Override
+        public long bytes() {
+            return super.bytes() + byFinish.bytes() + byDeadline.bytes();
+        }
+    }
 
-    private LocalDateTime created;
-    private LocalDateTime lastTick;
+    /*
+     * Requests waiting for their downstream calls, a row per request (see SlotTable); its calls are the Downstreams rows
+     * linked from firstCall through Downstreams.sibling.
+     */
+    private static final class Parents extends SlotTable {
+        Request[] request;
+        int[] firstCall;
+        int[] succeeded;
+        int[] failed;
+
+        Parents(int capacity) {
+            super(capacity);
+            request = new Request[capacity()];
+            firstCall = new int[capacity()];
+            succeeded = new int[capacity()];
+            failed = new int[capacity()];
+        }
 
-    private static class InProgress {
-        Request request;
-        double msToWait;
+        int add(Request r) {
+            var s = allocate();
+            this.request[s] = r;
+            this.firstCall[s] = -1;
+            this.succeeded[s] = 0;
+            this.failed[s] = 0;
+            return s;
+        }
+
+        void remove(int s) {
+            request[s] = null;
+            release(s);
+        }
+
+        @Override
+        protected void resize(int capacity) {
+            request = Arrays.copyOf(request, capacity);
+            firstCall = Arrays.copyOf(firstCall, capacity);
+            succeeded = Arrays.copyOf(succeeded, capacity);
+            failed = Arrays.copyOf(failed, capacity);
+        }
+
+        @Override
+        protected int bytesPerSlot() {
+            return REFERENCE_BYTES + Integer.BYTES * 3;
+        }
     }
 
-    private record SendDownstream(Request request){}
-    private static class  InDownstream {
-        public Request request;
-        public int attempt;
-        public LocalDateTime deadline;
-        public InDownstream(Request request, int attempt, LocalDateTime deadline) {
-            this.request = request;
-            this.attempt = attempt;
-            this.deadline = deadline;
+    /*
+     * Downstream calls, a row per call (see SlotTable), found by the id of the call's request.
+     */
+    private static final class Downstreams extends SlotTable {
+        Request[] request;
+        int[] parent; // row of the request in Parents
+        int[] branch; // which of the request's calls it is; the downstream service is downstreams[branch % downstreams.length]
+        int[] sibling; // next call of the same request, or -1
+        int[] attempt;
+        long[] deadline;
+        long[] sent; // when the current attempt went (or goes, after the backoff) downstream
+        int[] outstanding; // copies of the current attempt without a response
+        Request[] hedge; // hedged copy of the current attempt, if sent
+        long[] hedgeSent;
+        int[] generation; // bumped when the row is released, so the timers of the requests that had the slot before are stale
+        final LongIntMap byId;
+
+        Downstreams(int capacity) {
+            super(capacity);
+            request = new Request[capacity()];
+            parent = new int[capacity()];
+            branch = new int[capacity()];
+            sibling = new int[capacity()];
+            attempt = new int[capacity()];
+            deadline = new long[capacity()];
+            sent = new long[capacity()];
+            outstanding = new int[capacity()];
+            hedge = new Request[capacity()];
+            hedgeSent = new long[capacity()];
+            generation = new int[capacity()];
+            byId = new LongIntMap(capacity());
+        }
+
+        int add(Request r, int parent, int branch, long deadline) {
+            var s = allocate();
+            this.request[s] = r;
+            this.parent[s] = parent;
+            this.branch[s] = branch;
+            this.attempt[s] = 0;
+            this.deadline[s] = deadline;
+            this.outstanding[s] = 1;
+            byId.put(r.id.id(), s);
+            return s;
+        }
+
+        // slot of the request, or -1
+        int get(long id) {
+            return byId.get(id);
+        }
+
+        // the hedge has an id of its own, so the downstream service tells it apart from the attempt it copies
+        void addHedge(int s, Request h, long sent) {
+            hedge[s] = h;
+            hedgeSent[s] = sent;
+            byId.put(h.id.id(), s);
+        }
+
+        void removeHedge(int s) {
+            if (hedge[s] != null) {
+                byId.remove(hedge[s].id.id());
+                hedge[s] = null;
+            }
+        }
+
+        void remove(int s) {
+            byId.remove(request[s].id.id());
+            removeHedge(s);
+            request[s] = null;
+            generation[s]++;
+            release(s);
+        }
+
+        /*
+         * Stamp of the timers of the row's current attempt (see TimerHeap); it changes when the request moves on
+         * to another attempt, or leaves the table.
+         */
+        long stamp(int s) {
+            return ((long) generation[s] << 32) | attempt[s];
+        }
+
+        @Override
+        protected void resize(int capacity) {
+            request = Arrays.copyOf(request, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            branch = Arrays.copyOf(branch, capacity);
+            sibling = Arrays.copyOf(sibling, capacity);
+            attempt = Arrays.copyOf(attempt, capacity);
+            deadline = Arrays.copyOf(deadline, capacity);
+            sent = Arrays.copyOf(sent, capacity);
+            outstanding = Arrays.copyOf(outstanding, capacity);
+            hedge = Arrays.copyOf(hedge, capacity);
+            hedgeSent = Arrays.copyOf(hedgeSent, capacity);
+            generation = Arrays.copyOf(generation, capacity);
+        }
+
+        @Override
+        protected int bytesPerSlot() {
+            return REFERENCE_BYTES * 2 + Integer.BYTES * 6 + Long.BYTES * 3;
+        }
+
+        @Override
+        public long bytes() {
+            return super.bytes() + byId.bytes();
         }
     }
 
-    private List<InProgress> inProgress = new ArrayList<>();
-    private Map<Request.RequestId, InDownstream> inDownstream = new HashMap<>();
+    private record SendDownstream(ActorRef downstream, Request request){}
 
     /*
-    * downstream - downstream service; may be null.
+     * Processor sharing: every calculating request progresses at the same rate, min(1, availableConcurrency / calculations.size()).
+     * The work clock accumulates the milliseconds of work each of them has received so far; a request completes once
+     * the work clock reaches its finishWork, so calculations are kept in a heap ordered by finishWork.
+     */
+    private double work;
+    private long nextSequence;
+    private Calculations calculations = new Calculations(INITIAL_SLOTS);
+    private double cpuMs; // milliseconds of CPU spent on the calculations
+    private long expired; // requests dropped after they started (the limiter counts the ones dropped before)
+    private double savedWorkMs; // milliseconds of calculations cut short because the requests expired after they started
+    private Parents parents = new Parents(INITIAL_SLOTS);
+    private Downstreams inDownstream = new Downstreams(INITIAL_SLOTS);
+    private long abandoned; // calls still in flight when their request succeeded, failed or expired
+    // timers of the inDownstream rows; stale once the request got its response or moved on to another attempt
+    private TimerHeap deadlines = new TimerHeap(INITIAL_SLOTS);
+    private TimerHeap retries = new TimerHeap(INITIAL_SLOTS);
+    private TimerHeap hedgeTimers = new TimerHeap(INITIAL_SLOTS);
+
+    /*
+    * downstream - downstream service; may be null (see also FanOut).
     * availableConcurrency - number of messages that can be processed locally at full speed. Extra messages handled in parallel delay the execution (emulates CPU bottleneck).
     *   however, the requests waiting for downstream services are not counted against the availableConcurrency.
     * limiter - the limiter.
     * duration - duration of local calculation (not counting the time downstream or the time waiting for the executor to pick it up).
+    * errors - errors model; may be null.
+    * retries - timeouts and retries of the downstream calls.
+    * clock - wall clock, or the virtual clock of the simulation.
+    * metrics - where to publish periodic samples of the service state; may be null.
+    * batching - coalesce the requests and responses sent in a turn per destination (see Outbox).
     *
     * */
-    public static Props props(ActorRef downstream, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors) {
-        return Props.create(Service.class, () -> new Service(downstream, availableConcurrency, limiter, calcDuration, errors));
+    public static Props props(ActorRef downstream, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors, Retries retries, Clock clock, Metrics metrics) {
+        return props(downstream, availableConcurrency, limiter, calcDuration, errors, retries, clock, metrics, false);
+    }
+
+    public static Props props(ActorRef downstream, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors, Retries retries, Clock clock, Metrics metrics,
+                              boolean batching) {
+        return Props.create(Service.class, () -> new Service(downstream, 1, availableConcurrency, limiter, calcDuration, errors, retries, clock, metrics, batching));
+    }
+
+    /*
+     * downstreams - downstream services, all of them called for every request; empty for the leaves.
+     * fanOut - how many times each of them is called, and how many of the calls have to succeed.
+     */
+    public static Props props(List<ActorRef> downstreams, FanOut fanOut, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors, Retries retries,
+                              Clock clock, Metrics metrics, boolean batching) {
+        return Props.create(Service.class, () -> new Service(downstreams, fanOut, 1, availableConcurrency, limiter, calcDuration, errors, retries, clock, metrics, batching));
     }
 
-    public Service(ActorRef downstream, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors) {
-        this.downstream = downstream;
+    public Service(ActorRef downstream, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors, Retries retries, Clock clock, Metrics metrics) {
+        this(downstream, 1, availableConcurrency, limiter, calcDuration, errors, retries, clock, metrics, false);
+    }
+
+    /*
+     * connections - number of connections opened to the downstream Group (see LoadGenerator).
+     */
+    protected Service(ActorRef downstream, int connections, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors, Retries retries, Clock clock, Metrics metrics,
+                      boolean batching) {
+        this(downstream == null ? List.of() : List.of(downstream), FanOut.NONE, connections, availableConcurrency, limiter, calcDuration, errors, retries, clock,
+                metrics, batching);
+    }
+
+    protected Service(List<ActorRef> downstreams, FanOut fanOut, int connections, int availableConcurrency, Limiter limiter, Duration calcDuration, Errors errors,
+                      Retries retries, Clock clock, Metrics metrics, boolean batching) {
+        this.batching = batching;
+        this.downstreams = downstreams.toArray(new ActorRef[0]);
+        this.calls = this.downstreams.length * fanOut.width();
+        this.needed = fanOut.needed(this.calls);
         this.availableConcurrency = availableConcurrency;
         this.limiter = limiter;
         this.calcDuration = calcDuration;
         this.errors = errors;
+        this.downstreamRetries = retries.retries();
+        this.downstreamTimeout = retries.timeout();
+        this.downstreamMinBackoff = retries.minBackoff();
+        this.downstreamMaxBackoff = retries.maxBackoff();
+        this.propagateDeadline = retries.propagateDeadline();
+        // with no budget nothing is ever hedged, so the latencies aren't recorded and no timers are scheduled either
+        this.hedging = retries.hedging() != null && retries.hedging().budget() > 0 ? retries.hedging() : null;
+        this.retryBudget = retries.budget();
+        if (this.hedging != null) {
+            this.downstreamLatencies = new Histogram();
+        }
+        this.clock = clock;
+        this.metrics = metrics;
 
         var rnd = new Random().nextInt(1000000);
-        created = LocalDateTime.now().minus(Duration.ofMillis(rnd)); //
-        lastTick = LocalDateTime.now();
+        created = clock.now() - Duration.ofMillis(rnd).toNanos(); //
+        lastTick = clock.now();
 
-        if (downstream != null)
-            downstream.tell(new Group.Connect(), getSelf());
+        for (var downstream : this.downstreams) {
+            downstream.tell(new Group.Connect(connections), getSelf());
+        }
     }
 
     int inFlight() {
-        return inProgress.size() + inDownstream.size();
+        return calculating() + parents.size();
+    }
+
+    private int calculating() {
+        return calculations.size();
+    }
+
+    /*
+     * Estimated heap footprint of the in-flight tables, the timers and the admission queue (not of the requests themselves).
+     */
+    long bytes() {
+        return calculations.bytes() + parents.bytes() + inDownstream.bytes() + deadlines.bytes() + retries.bytes() + hedgeTimers.bytes()
+                + (limiter == null ? 0 : limiter.queue().bytes());
+    }
+
+    @Override
+    public void preStart() {
+        outbox = new Outbox(getSelf(), batching);
+        if (metrics == null)
+            return;
+        var name = self().path().name();
+        inFlightSeries = metrics.register(name, "in_flight");
+        limiterInFlightSeries = metrics.register(name, "limiter_in_flight");
+        limitSeries = metrics.register(name, "limit");
+        queueSeries = metrics.register(name, "queue");
+        sojournSeries = metrics.register(name, "queue_sojourn_p99_us");
+        shedSeries = metrics.register(name, "queue_shed");
+        expiredSeries = metrics.register(name, "expired");
+        cpuSeries = metrics.register(name, "cpu_ms");
+        savedWorkSeries = metrics.register(name, "saved_work_ms");
+        retriesSeries = metrics.register(name, "retries");
+        suppressedSeries = metrics.register(name, "retries_suppressed");
+        memorySeries = metrics.register(name, "memory_bytes");
+        if (calls > 1) {
+            abandonedSeries = metrics.register(name, "calls_abandoned");
+        }
+        if (hedging != null) {
+            hedgesSeries = metrics.register(name, "hedges");
+            hedgeWinsSeries = metrics.register(name, "hedge_wins");
+            hedgeDelaySeries = metrics.register(name, "hedge_delay_us");
+        }
+        metrics.startSampling(self(), timers());
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(Request.class, r -> handleRequest(r))
-                .match(SendDownstream.class, d -> sendDownstream(d))
-                .match(Response.class, r -> handleResponse(r))
-                .match(Driver.Tick.class, t -> tick())
+                .match(Request.class, r -> { handleRequest(r); outbox.flush(); })
+                .match(SendDownstream.class, d -> { sendDownstream(d); outbox.flush(); })
+                .match(Response.class, r -> { handleResponse(r); outbox.flush(); })
+                .match(Outbox.Batch.class, b -> handleBatch(b))
+                .match(Driver.Tick.class, t -> { tick(); outbox.flush(); })
                 .match(Group.Connect.class, c -> handleConnect())
+                .match(ColdStart.class, c -> coldStart(c))
+                .match(Metrics.Sample.class, s -> sample())
                 .build();
     }
 
+    private void handleBatch(Outbox.Batch b) {
+        for (var m : b.messages()) {
+            if (m instanceof Request r) {
+                handleRequest(r);
+            } else if (m instanceof Response r) {
+                handleResponse(r);
+            } else {
+                sendDownstream((SendDownstream) m);
+            }
+        }
+        outbox.flush();
+    }
+
     private void handleConnect() {
         // do nothing
     }
 
+    private void coldStart(ColdStart c) {
+        var now = clock.now();
+        progressCalculations(now);
+        this.warmConcurrency = this.availableConcurrency;
+        this.availableConcurrency = c.availableConcurrency();
+        this.coldUntil = c.until();
+        scheduleWakeUp(now);
+    }
+
+    private void sample() {
+        metrics.record(inFlightSeries, inFlight());
+        metrics.record(limiterInFlightSeries, limiter.inFlight);
+        metrics.record(limitSeries, limiter.limit());
+        metrics.record(queueSeries, limiter.waiting());
+        var sojourn = limiter.queue().sojourn;
+        metrics.record(sojournSeries, sojourn.percentile(99) / 1000);
+        sojourn.reset();
+        metrics.record(shedSeries, limiter.queue().shedTotal());
+        // the requests expired before they started didn't get any of their calculation
+        metrics.record(expiredSeries, limiter.expired() + expired);
+        metrics.record(cpuSeries, (long) cpuMs);
+        metrics.record(savedWorkSeries, (long) (savedWorkMs + limiter.expired() * calcDuration.toMillis()));
+        metrics.record(retriesSeries, retried);
+        metrics.record(suppressedSeries, suppressed);
+        metrics.record(memorySeries, bytes());
+        if (calls > 1) {
+            metrics.record(abandonedSeries, abandoned);
+        }
+        if (hedging != null) {
+            metrics.record(hedgesSeries, hedges);
+            metrics.record(hedgeWinsSeries, hedgeWins);
+            metrics.record(hedgeDelaySeries, hedgeDelay == Long.MAX_VALUE ? -1 : hedgeDelay / 1000);
+        }
+        metrics.sampled(self());
+    }
+
     private void tick() {
-        var now = LocalDateTime.now();
-        var sinceLastTick = NANOS.between(lastTick, now);
-        lastTick = now;
+        var now = clock.now();
+        if (nextWakeUp <= now) {
+            nextWakeUp = Long.MAX_VALUE;
+        }
 
         if (limiter != null) limiter.tick(now);
 
-        double computeProgressedBy = sinceLastTick / 1000000;
-        if (this.inProgress.size() > this.availableConcurrency) {
-            computeProgressedBy = computeProgressedBy / this.inProgress.size() * this.availableConcurrency;
+        progressCalculations(now);
+        expireCalculations(now);
+
+        while (true) {
+            var next = nextTimer(this.retries);
+            if (next < 0 || this.retries.peekAt() > now) {
+                break;
+            }
+            this.retries.poll();
+            // an expired request isn't retried; its deadline timer drops it
+            if (!inDownstream.request[next].expired(now)) {
+                sendDownstream(sendDownstream(next));
+            }
         }
 
-        var inProgressIter = this.inProgress.iterator();
-        while (inProgressIter.hasNext()) {
-            var r = inProgressIter.next();
-            r.msToWait -= computeProgressedBy;
-            if (r.msToWait <= 0) {
-                var error = this.errors == null ? false : this.errors.error(r.request);
-                sendResponse(r.request, (error ? Response.Status.Error : Response.Status.Ok));
-                inProgressIter.remove();
+        while (true) {
+            var next = nextTimer(this.hedgeTimers);
+            if (next < 0 || this.hedgeTimers.peekAt() > now) {
+                break;
             }
+            this.hedgeTimers.poll();
+            hedge(next, now);
         }
 
-        var inDownstreamIter = this.inDownstream.entrySet().iterator();
-        while(inDownstreamIter.hasNext()) {
-            var e = inDownstreamIter.next();
-            var req = e.getValue();
-            if (!req.deadline.isBefore(now)) {
-                continue;
+        while (true) {
+            var next = nextTimer(this.deadlines);
+            if (next < 0 || this.deadlines.peekAt() > now) {
+                break;
             }
+            this.deadlines.poll();
 
-            if (req.attempt >= this.downstreamRetries) {
-                inDownstreamIter.remove();
-                sendResponse(req.request, Response.Status.DownstreamError);
+            if (inDownstream.request[next].expired(now)) {
+                callExpired(next, now);
             } else {
-                resendDownstream(req, now);
+                retryOrFail(next, now);
             }
         }
 
         startExecution(now);
+        scheduleWakeUp(now);
+    }
+
+    /*
+     * Moves local calculations forward to now; when more than availableConcurrency requests are calculated, all of them slow down proportionally.
+     */
+    private void progressCalculations(long now) {
+        // the work up to the end of the cold start is done at the reduced concurrency
+        if (this.coldUntil <= now) {
+            progress(Math.max(this.coldUntil, this.lastTick));
+            this.availableConcurrency = this.warmConcurrency;
+            this.coldUntil = Long.MAX_VALUE;
+        }
+        progress(now);
+    }
+
+    private void progress(long now) {
+        double elapsedMs = (now - lastTick) / 1000000.0;
+        lastTick = now;
+
+        // completions speed up the rest, so move the work clock from one completion to the next
+        while (true) {
+            var first = calculations.byFinish.peek();
+            if (first < 0)
+                return;
+            var finishWork = calculations.finishWork[first];
+            var rate = workRate();
+            var untilFirst = (finishWork - this.work) / rate;
+            if (untilFirst > elapsedMs) {
+                this.work += elapsedMs * rate;
+                this.cpuMs += elapsedMs * rate * calculating();
+                return;
+            }
+            var step = Math.max(untilFirst, 0);
+            elapsedMs -= step;
+            this.cpuMs += step * rate * calculating();
+            this.work = Math.max(this.work, finishWork);
+            var request = calculations.request[first];
+            calculations.remove(first);
+
+            var error = this.errors == null ? false : this.errors.error(request, now);
+            sendResponse(request, (error ? Response.Status.Error : Response.Status.Ok), now);
+        }
+    }
+
+    private double workRate() {
+        var calculating = calculating();
+        if (calculating > this.availableConcurrency) {
+            return (double) this.availableConcurrency / calculating;
+        }
+        return 1;
+    }
+
+    /*
+     * Cancels the calculations whose deadline has passed; the rest speed up as if the cancelled ones completed.
+     */
+    private void expireCalculations(long now) {
+        while (true) {
+            var first = calculations.byDeadline.peek();
+            if (first < 0 || calculations.deadline[first] > now)
+                return;
+            var request = calculations.request[first];
+            var savedWorkMs = calculations.finishWork[first] - this.work;
+            calculations.remove(first);
+            expire(request, savedWorkMs, now);
+        }
+    }
+
+    // tells the caller the request is dropped (it won't wait for the response anyway)
+    private void expire(Request request, double savedWorkMs, long now) {
+        this.expired++;
+        this.savedWorkMs += savedWorkMs;
+        var resp = new Response();
+        resp.request = request;
+        resp.status = Response.Status.Discarded;
+        outbox.tell(request.leave(this.getSelf()), resp);
+        if (this.limiter != null) {
+            this.limiter.hasExpired(request, now);
+        }
     }
 
-    private void startExecution(LocalDateTime now) {
+    // inDownstream slot of the first live timer, or -1; the stale ones are dropped off the top of the heap
+    private int nextTimer(TimerHeap timers) {
+        while (!timers.isEmpty()) {
+            var slot = timers.peekSlot();
+            if (this.inDownstream.stamp(slot) == timers.peekStamp()) {
+                return slot;
+            }
+            timers.poll();
+        }
+        return -1;
+    }
+
+    /*
+     * With the virtual clock nobody broadcasts ticks, so the service asks to be woken up when the next calculation completes,
+     * the next downstream deadline expires, or the limiter wants to re-check its limit.
+     */
+    private void scheduleWakeUp(long now) {
+        if (!clock.isVirtual())
+            return;
+
+        var next = Long.MAX_VALUE;
+        var first = calculations.byFinish.peek();
+        if (first >= 0) {
+            var untilFirst = (calculations.finishWork[first] - work) / workRate();
+            next = now + (long) Math.ceil(untilFirst * 1000000) + 1;
+        }
+        var expiry = calculations.byDeadline.peek();
+        if (expiry >= 0) {
+            next = Math.min(next, calculations.deadline[expiry]);
+        }
+        if (nextTimer(deadlines) >= 0) {
+            next = Math.min(next, deadlines.peekAt());
+        }
+        if (nextTimer(retries) >= 0) {
+            next = Math.min(next, retries.peekAt());
+        }
+        if (nextTimer(hedgeTimers) >= 0) {
+            next = Math.min(next, hedgeTimers.peekAt());
+        }
+        if (limiter.inFlight > 0) {
+            next = Math.min(next, limiter.nextCheck());
+        }
+        if (coldUntil != Long.MAX_VALUE && !calculations.isEmpty()) {
+            next = Math.min(next, coldUntil);
+        }
+
+        if (next >= nextWakeUp)
+            return;
+        nextWakeUp = next;
+        clock.schedule(next - now, self(), new Driver.Tick());
+    }
+
+    private void startExecution(long now) {
         while (true) {
-            var next = this.limiter.poll();
+            var next = this.limiter.poll(now);
             if (next == null)
                 break;
             startExecution(next, now);
         }
+        while (true) {
+            var shed = this.limiter.pollShed();
+            if (shed == null)
+                break;
+            sendResponse(shed, Response.Status.Discarded, now);
+        }
     }
 
-    private void startExecution(Request request, LocalDateTime now) {
-        if (this.downstream == null) {
-            startCalculation(request);
-        } else {
-            var s = new SendDownstream(request.goDownstream(0));
-            var d = new InDownstream(request, 0, now.plus(this.downstreamTimeout));
-            inDownstream.put(request.id, d);
-            self().tell(s, ActorRef.noSender());
+    private void startExecution(Request request, long now) {
+        request.started = now;
+        if (this.downstreams.length == 0) {
+            startCalculation(request, now);
+            return;
+        }
+        var p = parents.add(request);
+        var deadline = Math.min(now + this.downstreamTimeout.toNanos(), request.deadline);
+        for (int b = 0; b < this.calls; b++) {
+            // the first call goes with the request's own id
+            var d = inDownstream.add(b == 0 ? request : request.branch(clock.nextRequestId()), p, b, deadline);
+            inDownstream.sibling[d] = parents.firstCall[p];
+            parents.firstCall[p] = d;
+            var s = sendDownstream(d);
+            deadlines.add(deadline, d, inDownstream.stamp(d));
+            scheduleHedge(d, now, now);
+            if (this.retryBudget != null) {
+                this.retryBudget.attempted(now);
+            }
+            outbox.tell(self(), s);
         }
     }
 
-    private void sendResponse(Request req, Response.Status status) {
+    private void sendResponse(Request req, Response.Status status, long now) {
         var resp = new Response();
         resp.request = req;
         resp.status = status;
-        var last = resp.request.returnPath.removeLast();
-        if (!last.equals(this.getSelf())) {
-            throw new RuntimeException("Routing error");
+        outbox.tell(resp.request.leave(this.getSelf()), resp);
+        if (status != Response.Status.Discarded && this.limiter != null) {
+            this.limiter.hasResult(resp, now);
         }
+    }
 
-        resp.request.returnPath.getLast().tell(resp, this.getSelf());
-        if (status != Response.Status.Discarded && this.limiter != null) {
-            this.limiter.hasResult(resp);
+    /*
+     * The attempt of the request in slot d failed or timed out: retries it, unless it was the last one or the budget is used up.
+     */
+    private void retryOrFail(int d, long now) {
+        if (inDownstream.attempt[d] < this.downstreamRetries) {
+            if (this.retryBudget == null || this.retryBudget.retry(now)) {
+                this.retried++;
+                resendDownstream(d, now);
+                return;
+            }
+            this.suppressed++;
         }
+        callFailed(d, now);
+    }
+
+    // the call succeeded; its request goes on to the calculation once enough of its calls did
+    private void callSucceeded(int d, long now) {
+        var p = inDownstream.parent[d];
+        removeCall(d);
+        if (++parents.succeeded[p] < this.needed)
+            return;
+        startCalculation(finishCalls(p), now);
+    }
+
+    // the call failed for good; so does its request, once too few of its calls are left to succeed
+    private void callFailed(int d, long now) {
+        var p = inDownstream.parent[d];
+        removeCall(d);
+        if (this.calls - ++parents.failed[p] >= this.needed)
+            return;
+        sendResponse(finishCalls(p), Response.Status.DownstreamError, now);
     }
 
-    private void resendDownstream(InDownstream req, LocalDateTime now) {
+    // the request's deadline passed while it was waiting for the call
+    private void callExpired(int d, long now) {
+        expire(finishCalls(inDownstream.parent[d]), this.calcDuration.toMillis(), now);
+    }
+
+    private void removeCall(int d) {
+        var p = inDownstream.parent[d];
+        if (parents.firstCall[p] == d) {
+            parents.firstCall[p] = inDownstream.sibling[d];
+        } else {
+            var c = parents.firstCall[p];
+            while (inDownstream.sibling[c] != d) {
+                c = inDownstream.sibling[c];
+            }
+            inDownstream.sibling[c] = inDownstream.sibling[d];
+        }
+        inDownstream.remove(d);
+    }
+
+    /*
+     * The request stops waiting for its calls: the ones still in flight are abandoned (their responses are ignored).
+     * Returns the request.
+     */
+    private Request finishCalls(int p) {
+        var c = parents.firstCall[p];
+        while (c >= 0) {
+            var next = inDownstream.sibling[c];
+            inDownstream.remove(c);
+            this.abandoned++;
+            c = next;
+        }
+        var request = parents.request[p];
+        parents.remove(p);
+        return request;
+    }
+
+    private void resendDownstream(int d, long now) {
         var backoff = this.downstreamMinBackoff;
-        for (int i = 0; i < req.attempt; i++) {
+        for (int i = 0; i < inDownstream.attempt[d]; i++) {
             backoff = backoff.multipliedBy(2);
         }
         if (backoff.compareTo(this.downstreamMaxBackoff) > 0) {
             backoff = this.downstreamMaxBackoff;
         }
 
-        req.attempt++;
-        req.deadline = now.plus(this.downstreamTimeout).plus(backoff);
+        inDownstream.attempt[d]++;
+        var resendAt = now + backoff.toNanos();
+        inDownstream.deadline[d] = Math.min(resendAt + this.downstreamTimeout.toNanos(), inDownstream.request[d].deadline);
+        this.deadlines.add(inDownstream.deadline[d], d, inDownstream.stamp(d));
+        inDownstream.outstanding[d] = 1;
+        inDownstream.removeHedge(d);
+        scheduleHedge(d, resendAt, now);
 
-        var d = new SendDownstream(req.request.goDownstream(req.attempt));
         if (backoff.isZero()) {
-            self().tell(d, self());
+            outbox.tell(self(), sendDownstream(d));
         } else {
-            this.timers().startSingleTimer(req.request.id.id() + req.attempt, d, backoff);
+            // sent from tick() once the backoff passes
+            this.retries.add(resendAt, d, inDownstream.stamp(d));
         }
     }
 
-    private void startCalculation(Request r) {
-        var ip = new InProgress();
-        ip.request = r;
-        ip.msToWait = this.calcDuration.toMillis();
-        this.inProgress.add(ip);
+    private void startCalculation(Request r, long now) {
+        // settle the work done so far before the new request starts sharing the CPU
+        progressCalculations(now);
+        this.calculations.add(r, this.work + this.calcDuration.toMillis(), this.nextSequence++);
+    }
+
+    /*
+     * Schedules the hedge of the attempt sent at sent; every attempt sent adds the budget to the hedge tokens.
+     */
+    private void scheduleHedge(int d, long sent, long now) {
+        inDownstream.sent[d] = sent;
+        if (this.hedging == null)
+            return;
+        this.hedgeTokens = Math.min(this.hedgeTokens + this.hedging.budget(), HEDGE_MAX_TOKENS);
+        var delay = hedgeDelay(now);
+        if (delay != Long.MAX_VALUE) {
+            this.hedgeTimers.add(sent + delay, d, inDownstream.stamp(d));
+        }
+    }
+
+    // the percentile of the downstream latencies, recalculated once a period
+    private long hedgeDelay(long now) {
+        if (now >= this.nextHedgeUpdate) {
+            this.hedgeDelay = this.downstreamLatencies.count() >= HEDGE_MIN_SAMPLES
+                    ? this.downstreamLatencies.percentile(this.hedging.percentile()) : Long.MAX_VALUE;
+            this.downstreamLatencies.reset();
+            this.nextHedgeUpdate = now + HEDGE_PERIOD;
+        }
+        return this.hedgeDelay;
+    }
+
+    /*
+     * Sends a copy of the attempt, which is still waiting for its response, unless the budget is used up.
+     */
+    private void hedge(int d, long now) {
+        if (inDownstream.request[d].expired(now) || this.hedgeTokens < 1)
+            return;
+        this.hedgeTokens--;
+        this.hedges++;
+        var s = sendDownstream(d);
+        var h = s.request().branch(clock.nextRequestId());
+        inDownstream.addHedge(d, h, now);
+        inDownstream.outstanding[d]++;
+        sendDownstream(new SendDownstream(s.downstream(), h));
+    }
+
+    // the current attempt of the call, to its downstream service
+    private SendDownstream sendDownstream(int d) {
+        return new SendDownstream(this.downstreams[inDownstream.branch[d] % this.downstreams.length], goDownstream(d));
+    }
+
+    // the current attempt of the request in slot d; it carries the attempt's deadline when the service propagates them
+    private Request goDownstream(int d) {
+        return goDownstream(inDownstream.request[d], inDownstream.attempt[d], this.propagateDeadline ? inDownstream.deadline[d] : Long.MAX_VALUE);
+    }
+
+    /*
+     * The attempt of the request sent downstream.
+     */
+    protected Request goDownstream(Request request, int attempt, long deadline) {
+        return request.goDownstream(attempt, deadline);
     }
 
     private void sendDownstream(SendDownstream d) {
-        this.downstream.tell(d.request, getSelf());
+        outbox.tell(d.downstream, d.request);
     }
 
     private void handleResponse(Response r) {
-        var last = r.request.returnPath.getLast();
-        if (!last.equals(this.getSelf())) {
+        if (!r.request.last().equals(this.getSelf())) {
             throw new RuntimeException("Routing error");
         }
-        var inD = inDownstream.get(r.request.id);
-        if (inD == null || inD.attempt != r.request.attempt) {
+        var d = inDownstream.get(r.request.id.id());
+        if (d < 0 || inDownstream.attempt[d] != r.request.attempt) {
             return;
         }
-        if (r.status == Response.Status.Ok) {
-            this.inDownstream.remove(r.request.id);
-            this.startCalculation(inD.request);
-            return;
-        }
-        if (inD.attempt >= this.downstreamRetries) {
-            this.inDownstream.remove(r.request.id);
-            sendResponse(inD.request, Response.Status.DownstreamError);
+        var now = clock.now();
+        if (inDownstream.request[d].expired(now)) {
+            callExpired(d, now);
+        } else if (r.status != Response.Status.Ok && inDownstream.outstanding[d] > 1) {
+            // the other copy of the attempt may still succeed
+            inDownstream.outstanding[d]--;
+        } else if (r.status == Response.Status.Ok) {
+            if (this.retryBudget != null) {
+                this.retryBudget.succeeded(now);
+            }
+            if (this.hedging != null) {
+                var hedged = r.request == inDownstream.hedge[d];
+                this.downstreamLatencies.record(now - (hedged ? inDownstream.hedgeSent[d] : inDownstream.sent[d]));
+                if (hedged)
+                    this.hedgeWins++;
+            }
+            callSucceeded(d, now);
         } else {
-            resendDownstream(inD, LocalDateTime.now());
+            retryOrFail(d, now);
         }
+        // a request that failed, expired or finished its calculation meanwhile frees its place in the limiter
+        startExecution(now);
+        scheduleWakeUp(now);
     }
 
     private void handleRequest(Request r) {
-        r.returnPath.add(self());
+        r.enter(self());
 
-        if (!this.limiter.push(r)) {
-            sendResponse(r, Response.Status.Discarded);
+        var now = clock.now();
+        if (!this.limiter.push(r, now)) {
+            sendResponse(r, Response.Status.Discarded, now);
             return;
         }
-        startExecution(LocalDateTime.now());
+        startExecution(now);
+        scheduleWakeUp(now);
     }
 }
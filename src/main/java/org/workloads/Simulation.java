@@ -0,0 +1,126 @@
+package org.workloads;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.apache.pekko.dispatch.ExecutionContexts;
+
+import java.time.Duration;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Discrete-event simulation: a virtual clock plus a priority queue of scheduled messages.
+ *
+ * The simulation is also the executor of the actor system (see Main), so all the actors run on the thread calling run().
+ * Mailboxes are processed until there is nothing left to do at the current instant; only then the clock jumps
+ * to the next scheduled event. The run takes as long as the CPU needs, and doesn't depend on the host load.
+ */
+public class Simulation extends Clock implements Executor {
+
+    private record Event(long at, long sequence, ActorRef target, Object message) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event o) {
+            if (at != o.at)
+                return Long.compare(at, o.at);
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private long nowNanos;
+    private long sequence;
+    private long lastRequestId; // only the simulation thread creates requests
+
+    // Mailboxes can be submitted from other threads (e.g. Main sending Driver.Start); events are only touched by the simulation thread.
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+    @Override
+    public long nextRequestId() {
+        return ++lastRequestId;
+    }
+
+    @Override
+    public long now() {
+        return nowNanos;
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    public void schedule(long delay, ActorRef target, Object message) {
+        // the clock never goes back: overdue events fire at the current instant
+        events.add(new Event(nowNanos + Math.max(delay, 0), sequence++, target, message));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    /*
+     * Runs the simulation until the virtual clock passes the duration, or until there's nothing scheduled.
+     */
+    public void run(Duration duration) {
+        var end = nowNanos + duration.toNanos();
+        while (true) {
+            drain();
+            var next = events.peek();
+            if (next == null || next.at > end)
+                break;
+            events.poll();
+            nowNanos = next.at;
+            next.target.tell(next.message, ActorRef.noSender());
+        }
+        nowNanos = end;
+    }
+
+    /*
+     * Keeps running the mailboxes until an event is scheduled. The top-level actors start asynchronously (their guardian runs
+     * on pekko's internal dispatcher), so right after creating them there may be nothing to run yet.
+     */
+    public void awaitScheduled() {
+        while (events.isEmpty()) {
+            if (!drain()) {
+                LockSupport.parkNanos(1000000);
+            }
+        }
+    }
+
+    /*
+     * Actor system running on the simulation. Its loggers start (and wait to be answered) before anything drains the mailboxes,
+     * so they get the internal dispatcher instead.
+     */
+    public ActorSystem system(String name) {
+        var config = ConfigFactory.parseString("pekko.loggers-dispatcher = pekko.actor.internal-dispatcher").withFallback(ConfigFactory.load());
+        return ActorSystem.create(name, config, Simulation.class.getClassLoader(), ExecutionContexts.fromExecutor(this));
+    }
+
+    /*
+     * Terminates the actor system; the actors have to be stopped on the simulation thread, so keep running their mailboxes meanwhile.
+     */
+    public void terminate(ActorSystem system) {
+        system.terminate();
+        var terminated = system.getWhenTerminated().toCompletableFuture();
+        while (!terminated.isDone()) {
+            if (!drain()) {
+                LockSupport.parkNanos(1000000);
+            }
+        }
+    }
+
+    private boolean drain() {
+        var any = false;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            any = true;
+        }
+        return any;
+    }
+}
@@ -0,0 +1,124 @@
+package org.workloads;
+
+import java.util.Arrays;
+
+/*
+ * Indexed binary min-heap of the slots of a SlotTable, ordered by the table's own arrays; it keeps every slot's position,
+ * so a slot can be removed from the middle (a cancelled calculation) instead of being left in the heap until it surfaces.
+ * Each slot can be in the heap at most once.
+ */
+public class SlotHeap {
+
+    public interface Order {
+        boolean before(int a, int b);
+    }
+
+    private final Order order;
+    private int[] heap;
+    private int[] positions; // slot -> index in heap, -1 when absent
+    private int size;
+
+    public SlotHeap(int capacity, Order order) {
+        this.order = order;
+        heap = new int[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int slot) {
+        return positions[slot] >= 0;
+    }
+
+    // first slot, or -1 when empty
+    public int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    public int poll() {
+        var slot = heap[0];
+        removeAt(0);
+        return slot;
+    }
+
+    public void add(int slot) {
+        heap[size] = slot;
+        positions[slot] = size;
+        up(size++);
+    }
+
+    public void remove(int slot) {
+        var i = positions[slot];
+        if (i >= 0) {
+            removeAt(i);
+        }
+    }
+
+    /*
+     * Follows the table's growth: slots go up to capacity - 1.
+     */
+    public void resize(int capacity) {
+        var old = positions.length;
+        heap = Arrays.copyOf(heap, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        Arrays.fill(positions, old, capacity, -1);
+    }
+
+    public long bytes() {
+        return (long) heap.length * Integer.BYTES * 2;
+    }
+
+    private void removeAt(int i) {
+        positions[heap[i]] = -1;
+        if (--size == i)
+            return;
+        var last = heap[size];
+        heap[i] = last;
+        positions[last] = i;
+        if (i > 0 && order.before(last, heap[(i - 1) / 2])) {
+            up(i);
+        } else {
+            down(i);
+        }
+    }
+
+    private void up(int i) {
+        var slot = heap[i];
+        while (i > 0) {
+            var parent = (i - 1) / 2;
+            if (!order.before(slot, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            positions[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        positions[slot] = i;
+    }
+
+    private void down(int i) {
+        var slot = heap[i];
+        while (true) {
+            var child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && order.before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!order.before(heap[child], slot))
+                break;
+            heap[i] = heap[child];
+            positions[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        positions[slot] = i;
+    }
+}
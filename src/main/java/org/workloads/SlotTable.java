@@ -0,0 +1,76 @@
+package org.workloads;
+
+/*
+ * Slot allocator of a structure-of-arrays table: a row is an index into the subclass's primitive arrays.
+ * Released slots go on a free list and are reused first; when none is free, the table doubles its arrays (resize),
+ * so a table that has grown to its working size doesn't allocate any more.
+ */
+public abstract class SlotTable {
+
+    // estimated size of an object reference (compressed oops, heaps under 32 GB)
+    public static final int REFERENCE_BYTES = 4;
+
+    private int[] free;
+    private int freeCount;
+    private int capacity;
+
+    protected SlotTable(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        free = new int[this.capacity];
+        // lowest slots first
+        for (int i = 0; i < this.capacity; i++) {
+            free[i] = this.capacity - 1 - i;
+        }
+        freeCount = this.capacity;
+    }
+
+    public int size() {
+        return capacity - freeCount;
+    }
+
+    public boolean isEmpty() {
+        return freeCount == capacity;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /*
+     * A free slot; the subclass fills in its row.
+     */
+    protected int allocate() {
+        if (freeCount == 0) {
+            var c = capacity * 2;
+            resize(c);
+            free = new int[c];
+            for (int i = c - 1; i >= capacity; i--) {
+                free[freeCount++] = i;
+            }
+            capacity = c;
+        }
+        return free[--freeCount];
+    }
+
+    /*
+     * The subclass clears the row's references first, so the table doesn't keep the requests alive.
+     */
+    protected void release(int slot) {
+        free[freeCount++] = slot;
+    }
+
+    /*
+     * Grows the arrays to the new capacity, keeping the rows.
+     */
+    protected abstract void resize(int capacity);
+
+    // bytes of the subclass's arrays per slot
+    protected abstract int bytesPerSlot();
+
+    /*
+     * Estimated heap footprint of the table's arrays.
+     */
+    public long bytes() {
+        return (long) capacity * (bytesPerSlot() + Integer.BYTES);
+    }
+}
@@ -0,0 +1,140 @@
+package org.workloads;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Parameter sweep: runs a scenario once per combination of parameter values, in parallel on the virtual clock,
+ * and prints a table of the results (one CSV row per run). See sweep.conf for the format.
+ *
+ * Parameters are top-level values of the scenario, which the scenario references as ${name};
+ * the scenario's metrics block is ignored, as the runs would write to the same file.
+ */
+public class Sweep {
+
+    private final Config base;
+    private final List<String> names = new ArrayList<>();
+    private final List<List<String>> values = new ArrayList<>();
+    private final int parallelism;
+    private final boolean random;
+    private final int samples;
+    private final long seed;
+    private final String output;
+
+    public Sweep(Config config) {
+        var c = config.getConfig("sweep");
+        this.base = Scenario.parse(c.hasPath("scenario") ? new File(c.getString("scenario")) : null).withoutPath("metrics");
+        var parameters = c.getConfig("parameters");
+        for (var name : parameters.root().keySet()) {
+            names.add(name);
+            values.add(parameters.getStringList(name));
+        }
+        var p = c.hasPath("parallelism") ? c.getInt("parallelism") : 0;
+        this.parallelism = p > 0 ? p : Runtime.getRuntime().availableProcessors();
+        var mode = c.hasPath("mode") ? c.getString("mode") : "grid";
+        this.random = switch (mode) {
+            case "grid" -> false;
+            case "random" -> true;
+            default -> throw new RuntimeException("Unknown sweep mode " + mode);
+        };
+        this.samples = random ? c.getInt("samples") : 0;
+        this.seed = c.hasPath("seed") ? c.getLong("seed") : 1;
+        this.output = c.hasPath("output") ? c.getString("output") : null;
+    }
+
+    public static Sweep load(File file) {
+        return new Sweep(ConfigFactory.parseFile(file));
+    }
+
+    /*
+     * Every combination of the values in grid mode; samples combinations drawn uniformly (with the seed) in random mode.
+     */
+    List<Map<String, String>> points() {
+        var points = new ArrayList<Map<String, String>>();
+        if (random) {
+            var rnd = new Random(seed);
+            for (int s = 0; s < samples; s++) {
+                var point = new LinkedHashMap<String, String>();
+                for (int i = 0; i < names.size(); i++) {
+                    point.put(names.get(i), values.get(i).get(rnd.nextInt(values.get(i).size())));
+                }
+                points.add(point);
+            }
+            return points;
+        }
+
+        var position = new int[names.size()];
+        while (true) {
+            var point = new LinkedHashMap<String, String>();
+            for (int i = 0; i < names.size(); i++) {
+                point.put(names.get(i), values.get(i).get(position[i]));
+            }
+            points.add(point);
+            // odometer: the last parameter changes fastest
+            var i = names.size() - 1;
+            while (i >= 0 && ++position[i] == values.get(i).size()) {
+                position[i--] = 0;
+            }
+            if (i < 0)
+                return points;
+        }
+    }
+
+    public void run() throws InterruptedException {
+        var points = points();
+        System.out.println(String.format("Sweep: %d runs, %d in parallel.", points.size(), parallelism));
+
+        var executor = Executors.newFixedThreadPool(parallelism);
+        var scenarios = new ArrayList<Scenario>();
+        var futures = new ArrayList<Future<Driver.Results>>();
+        for (var point : points) {
+            var scenario = new Scenario(ConfigFactory.parseMap(point).withFallback(base));
+            scenarios.add(scenario);
+            futures.add(executor.submit(() -> scenario.run(true, false)));
+        }
+        executor.shutdown();
+
+        try (var out = output == null ? null : new PrintStream(output)) {
+            var header = String.join(",", names) + ",sent,ok,goodput,ok_p50_ms,ok_p99_ms,ok_p999_ms,not_ok";
+            System.out.println(header);
+            if (out != null)
+                out.println(header);
+            for (int i = 0; i < points.size(); i++) {
+                var row = row(points.get(i), futures.get(i).get(), scenarios.get(i));
+                System.out.println(row);
+                if (out != null)
+                    out.println(row);
+            }
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            throw new RuntimeException("Sweep run failed", e.getCause());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String row(Map<String, String> point, Driver.Results results, Scenario scenario) {
+        var ok = results.latencies(Response.Status.Ok);
+        long notOk = 0;
+        for (var status : Response.Status.values()) {
+            if (status != Response.Status.Ok)
+                notOk += results.latencies(status).count();
+        }
+        var seconds = scenario.duration.toNanos() / 1e9;
+        return String.format("%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%d", String.join(",", point.values()), results.sent, ok.count(),
+                ok.count() / seconds, ok.percentile(50) / 1e6, ok.percentile(99) / 1e6, ok.percentile(99.9) / 1e6, notOk);
+    }
+}
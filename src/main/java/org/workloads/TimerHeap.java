@@ -0,0 +1,93 @@
+package org.workloads;
+
+import java.util.Arrays;
+
+/*
+ * Binary min-heap of timers, in parallel primitive arrays: when the timer fires, the slot of the SlotTable row it's for,
+ * and a stamp the owner checks against the row to tell whether the timer is stale (the row moved on, or was reused).
+ * Stale timers are left in the heap and skipped once they surface.
+ */
+public class TimerHeap {
+
+    private long[] at;
+    private int[] slots;
+    private long[] stamps;
+    private int size;
+
+    public TimerHeap(int capacity) {
+        capacity = Math.max(capacity, 1);
+        at = new long[capacity];
+        slots = new int[capacity];
+        stamps = new long[capacity];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // the first timer's fields; the heap shouldn't be empty
+    public long peekAt() {
+        return at[0];
+    }
+
+    public int peekSlot() {
+        return slots[0];
+    }
+
+    public long peekStamp() {
+        return stamps[0];
+    }
+
+    public void add(long time, int slot, long stamp) {
+        if (size == at.length) {
+            at = Arrays.copyOf(at, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+            stamps = Arrays.copyOf(stamps, size * 2);
+        }
+        var i = size++;
+        while (i > 0) {
+            var parent = (i - 1) / 2;
+            if (at[parent] <= time)
+                break;
+            move(parent, i);
+            i = parent;
+        }
+        at[i] = time;
+        slots[i] = slot;
+        stamps[i] = stamp;
+    }
+
+    public void poll() {
+        if (--size == 0)
+            return;
+        var time = at[size];
+        var slot = slots[size];
+        var stamp = stamps[size];
+        var i = 0;
+        while (true) {
+            var child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && at[child + 1] < at[child]) {
+                child++;
+            }
+            if (at[child] >= time)
+                break;
+            move(child, i);
+            i = child;
+        }
+        at[i] = time;
+        slots[i] = slot;
+        stamps[i] = stamp;
+    }
+
+    public long bytes() {
+        return (long) at.length * (Long.BYTES + Integer.BYTES + Long.BYTES);
+    }
+
+    private void move(int from, int to) {
+        at[to] = at[from];
+        slots[to] = slots[from];
+        stamps[to] = stamps[from];
+    }
+}
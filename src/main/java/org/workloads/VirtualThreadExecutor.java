@@ -0,0 +1,26 @@
+package org.workloads;
+
+import com.typesafe.config.Config;
+import org.apache.pekko.dispatch.DispatcherPrerequisites;
+import org.apache.pekko.dispatch.ExecutorServiceConfigurator;
+import org.apache.pekko.dispatch.ExecutorServiceFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Experimental executor of a dispatcher (executor = "org.workloads.VirtualThreadExecutor"): every mailbox run gets
+ * a virtual thread of its own, so the actors don't share a fixed pool of platform threads; see application.conf.
+ */
+public class VirtualThreadExecutor extends ExecutorServiceConfigurator {
+
+    public VirtualThreadExecutor(Config config, DispatcherPrerequisites prerequisites) {
+        super(config, prerequisites);
+    }
+
+    @Override
+    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory threadFactory) {
+        var factory = Thread.ofVirtual().name(id + "-", 0).factory();
+        return () -> Executors.newThreadPerTaskExecutor(factory);
+    }
+}
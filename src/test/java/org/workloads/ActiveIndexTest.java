@@ -0,0 +1,80 @@
+package org.workloads;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Random increments, decrements, additions, parking and unparking of the index, against plain counters.
+ */
+class ActiveIndexTest {
+
+    @Test
+    void orderFollowsCounts() {
+        var rnd = new Random(2);
+        for (int run = 0; run < 300; run++) {
+            var size = 1 + rnd.nextInt(8);
+            var index = new Group.ActiveIndex(size);
+            var counts = new ArrayList<Integer>();
+            var parked = new ArrayList<Boolean>();
+            for (int i = 0; i < size; i++) {
+                counts.add(0);
+                parked.add(false);
+            }
+            for (int step = 0; step < 2000; step++) {
+                var op = rnd.nextInt(20);
+                var i = rnd.nextInt(counts.size());
+                if (op < 8) {
+                    if (!parked.get(i)) {
+                        index.increment(i);
+                        counts.set(i, counts.get(i) + 1);
+                    }
+                } else if (op < 16) {
+                    if (!parked.get(i) && counts.get(i) > 0) {
+                        index.decrement(i);
+                        counts.set(i, counts.get(i) - 1);
+                    }
+                } else if (op < 19) {
+                    // only idle instances are parked, and the group always keeps one
+                    if (parked.get(i)) {
+                        index.unpark(i);
+                        parked.set(i, false);
+                    } else if (counts.get(i) == 0 && live(parked) > 1) {
+                        index.park(i);
+                        parked.set(i, true);
+                    }
+                } else {
+                    assertEquals(counts.size(), index.add());
+                    counts.add(0);
+                    parked.add(false);
+                }
+                check(index, counts, parked);
+            }
+        }
+    }
+
+    private static void check(Group.ActiveIndex index, ArrayList<Integer> counts, ArrayList<Boolean> parked) {
+        var live = live(parked);
+        var seen = new boolean[counts.size()];
+        var previous = 0;
+        for (int position = 0; position < live; position++) {
+            var instance = index.nth(position);
+            assertFalse(parked.get(instance), "parked instance " + instance + " at " + position);
+            assertFalse(seen[instance]);
+            seen[instance] = true;
+            assertEquals(counts.get(instance), index.count(instance));
+            assertTrue(counts.get(instance) >= previous, "out of order at " + position);
+            previous = counts.get(instance);
+        }
+        assertEquals(index.nth(0), index.leastBusy());
+    }
+
+    private static int live(ArrayList<Boolean> parked) {
+        return (int) parked.stream().filter(p -> !p).count();
+    }
+}
@@ -0,0 +1,38 @@
+package org.workloads;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Random puts and removes, from a small key range so that clusters and backward shifts happen, against a HashMap.
+ */
+class LongIntMapTest {
+
+    @Test
+    void matchesHashMap() {
+        var rnd = new Random(3);
+        var map = new LongIntMap(4);
+        var expected = new HashMap<Long, Integer>();
+        for (int step = 0; step < 200000; step++) {
+            long key = 1 + rnd.nextInt(500);
+            if (rnd.nextBoolean()) {
+                var value = rnd.nextInt(1000);
+                assertEquals(expected.getOrDefault(key, -1), map.put(key, value));
+                expected.put(key, value);
+            } else {
+                assertEquals(expected.getOrDefault(key, -1), map.remove(key));
+                expected.remove(key);
+            }
+            assertEquals(expected.size(), map.size());
+            if (step % 1000 == 0) {
+                for (long k = 1; k <= 500; k++) {
+                    assertEquals(expected.getOrDefault(k, -1), map.get(k));
+                }
+            }
+        }
+    }
+}
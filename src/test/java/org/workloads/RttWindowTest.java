@@ -0,0 +1,46 @@
+package org.workloads;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * The window's percentile against sorting the last samples.
+ */
+class RttWindowTest {
+
+    @Test
+    void percentileMatchesSortedSamples() {
+        var rnd = new Random(1);
+        for (int run = 0; run < 1000; run++) {
+            var capacity = 1 + rnd.nextInt(50);
+            var percentile = rnd.nextInt(5) == 0 ? 100 : rnd.nextDouble() * 100;
+            var window = new Limiter.RttWindow(capacity, percentile);
+            var last = new ArrayDeque<Long>();
+            for (int i = 0; i < 300; i++) {
+                // few distinct values, so that there are ties
+                long rtt = rnd.nextInt(20);
+                window.add(rtt);
+                last.addLast(rtt);
+                if (last.size() > capacity) {
+                    last.pollFirst();
+                }
+                if (!window.isFull())
+                    continue;
+                var sorted = last.stream().mapToLong(Long::longValue).sorted().toArray();
+                var expected = sorted[(int) Math.min(capacity - 1, Math.floor(percentile / 100 * capacity))];
+                assertEquals(expected, window.percentile(), "capacity " + capacity + ", percentile " + percentile + ", sample " + i);
+            }
+        }
+    }
+
+    @Test
+    void percentileOutOfRange() {
+        assertThrows(RuntimeException.class, () -> new Limiter.RttWindow(10, 101));
+        assertThrows(RuntimeException.class, () -> new Limiter.RttWindow(10, -1));
+    }
+}
@@ -0,0 +1,39 @@
+package org.workloads;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Random adds, polls and removals from the middle of the heap, against a sorted set of (key, slot).
+ */
+class SlotHeapTest {
+
+    @Test
+    void matchesSortedSet() {
+        var rnd = new Random(4);
+        var capacity = 8;
+        var keys = new long[capacity];
+        var heap = new SlotHeap(capacity, (a, b) -> keys[a] < keys[b] || (keys[a] == keys[b] && a < b));
+        var expected = new TreeSet<long[]>((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+        for (int step = 0; step < 100000; step++) {
+            var slot = rnd.nextInt(capacity);
+            var op = rnd.nextInt(3);
+            if (op == 0 && !heap.contains(slot)) {
+                keys[slot] = rnd.nextInt(50);
+                heap.add(slot);
+                expected.add(new long[] {keys[slot], slot});
+            } else if (op == 1 && heap.contains(slot)) {
+                heap.remove(slot);
+                expected.remove(new long[] {keys[slot], slot});
+            } else if (op == 2 && !heap.isEmpty()) {
+                assertEquals(expected.pollFirst()[1], heap.poll());
+            }
+            assertEquals(expected.size(), heap.size());
+            assertEquals(expected.isEmpty() ? -1 : expected.first()[1], heap.peek());
+        }
+    }
+}